@@ -2,6 +2,16 @@ package com.patterns.behavioral;
 
 import com.patterns.common.Demonstrable;
 import com.patterns.common.Logger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Chain of Responsibility Pattern - Avoids coupling the sender of a request
@@ -18,38 +28,448 @@ public final class ChainOfResponsibilityPattern implements Demonstrable {
         }
         
         public abstract void handleRequest(String issue, int priority);
+        
+        // Decision and action, split so a compiled chain can dispatch without escalating
+        public abstract boolean canHandle(String issue, int priority);
+        
+        public abstract void handle(String issue, int priority);
+    }
+    
+    // Handlers whose decision depends only on the priority: they accept priority <= maxPriority()
+    private interface PriorityRouted {
+        int maxPriority();
     }
     
     // Concrete Handlers
-    private static final class Level1Support extends SupportHandler {
+    private static final class Level1Support extends SupportHandler implements PriorityRouted {
         @Override
         public void handleRequest(String issue, int priority) {
-            if (priority <= 1) {
-                Logger.log("Level 1 Support: Handling issue - " + issue);
+            if (canHandle(issue, priority)) {
+                handle(issue, priority);
             } else if (nextHandler != null) {
                 Logger.log("Level 1 Support: Escalating to Level 2");
                 nextHandler.handleRequest(issue, priority);
             }
         }
+        
+        @Override
+        public boolean canHandle(String issue, int priority) {
+            return priority <= maxPriority();
+        }
+        
+        @Override
+        public void handle(String issue, int priority) {
+            Logger.log("Level 1 Support: Handling issue - " + issue);
+        }
+        
+        @Override
+        public int maxPriority() {
+            return 1;
+        }
     }
     
-    private static final class Level2Support extends SupportHandler {
+    private static final class Level2Support extends SupportHandler implements PriorityRouted {
         @Override
         public void handleRequest(String issue, int priority) {
-            if (priority <= 2) {
-                Logger.log("Level 2 Support: Handling issue - " + issue);
+            if (canHandle(issue, priority)) {
+                handle(issue, priority);
             } else if (nextHandler != null) {
                 Logger.log("Level 2 Support: Escalating to Level 3");
                 nextHandler.handleRequest(issue, priority);
             }
         }
+        
+        @Override
+        public boolean canHandle(String issue, int priority) {
+            return priority <= maxPriority();
+        }
+        
+        @Override
+        public void handle(String issue, int priority) {
+            Logger.log("Level 2 Support: Handling issue - " + issue);
+        }
+        
+        @Override
+        public int maxPriority() {
+            return 2;
+        }
     }
     
-    private static final class Level3Support extends SupportHandler {
+    private static final class Level3Support extends SupportHandler implements PriorityRouted {
         @Override
         public void handleRequest(String issue, int priority) {
+            handle(issue, priority);
+        }
+        
+        @Override
+        public boolean canHandle(String issue, int priority) {
+            return true;
+        }
+        
+        @Override
+        public void handle(String issue, int priority) {
             Logger.log("Level 3 Support: Handling critical issue - " + issue);
         }
+        
+        @Override
+        public int maxPriority() {
+            return Integer.MAX_VALUE;
+        }
+    }
+    
+    // Handler with an arbitrary predicate: it routes on the issue text, not the priority
+    private static final class SecuritySupport extends SupportHandler {
+        @Override
+        public void handleRequest(String issue, int priority) {
+            if (canHandle(issue, priority)) {
+                handle(issue, priority);
+            } else if (nextHandler != null) {
+                nextHandler.handleRequest(issue, priority);
+            }
+        }
+        
+        @Override
+        public boolean canHandle(String issue, int priority) {
+            return issue.toLowerCase().contains("security");
+        }
+        
+        @Override
+        public void handle(String issue, int priority) {
+            Logger.log("Security Team: Handling issue - " + issue);
+        }
+    }
+    
+    // Silent tier used to benchmark long chains without logging costs
+    private static final class TierSupport extends SupportHandler implements PriorityRouted {
+        private final int maxPriority;
+        private final LongAdder handled = new LongAdder();
+        
+        public TierSupport(int maxPriority) {
+            this.maxPriority = maxPriority;
+        }
+        
+        @Override
+        public void handleRequest(String issue, int priority) {
+            if (canHandle(issue, priority)) {
+                handle(issue, priority);
+            } else if (nextHandler != null) {
+                nextHandler.handleRequest(issue, priority);
+            }
+        }
+        
+        @Override
+        public boolean canHandle(String issue, int priority) {
+            return priority <= maxPriority;
+        }
+        
+        @Override
+        public void handle(String issue, int priority) {
+            handled.increment();
+        }
+        
+        @Override
+        public int maxPriority() {
+            return maxPriority;
+        }
+    }
+    
+    /*
+     * Immutable, flattened form of a chain. If every handler routes on priority
+     * alone, lookup[p - floor] holds the first handler that accepts p, with
+     * priorities clamped to the table range. Past the highest finite limit only
+     * catch-all handlers remain, so the last slot covers all larger priorities.
+     * A chain containing any other handler keeps the flat array and checks each
+     * handler in order, without recursion.
+     */
+    private static final class CompiledChain {
+        private static final int MAX_TABLE_SIZE = 1 << 16;
+        
+        private final SupportHandler[] handlers;
+        private final SupportHandler[] lookup;
+        private final int floor;
+        
+        private CompiledChain(SupportHandler[] handlers, SupportHandler[] lookup, int floor) {
+            this.handlers = handlers;
+            this.lookup = lookup;
+            this.floor = floor;
+        }
+        
+        public static CompiledChain compile(SupportHandler head) {
+            List<SupportHandler> chain = new ArrayList<>();
+            for (SupportHandler handler = head; handler != null; handler = handler.nextHandler) {
+                if (chain.size() > MAX_TABLE_SIZE) {
+                    throw new IllegalArgumentException("Chain is too long or contains a cycle");
+                }
+                chain.add(handler);
+            }
+            SupportHandler[] handlers = chain.toArray(SupportHandler[]::new);
+            
+            long floor = Long.MAX_VALUE;
+            long ceiling = Long.MIN_VALUE;
+            for (SupportHandler handler : handlers) {
+                if (!(handler instanceof PriorityRouted routed)) {
+                    return new CompiledChain(handlers, null, 0);
+                }
+                floor = Math.min(floor, routed.maxPriority());
+                if (routed.maxPriority() != Integer.MAX_VALUE) {
+                    ceiling = Math.max(ceiling, routed.maxPriority());
+                }
+            }
+            if (handlers.length == 0 || ceiling == Long.MIN_VALUE) {
+                ceiling = floor == Long.MAX_VALUE ? 0 : floor;
+                floor = ceiling;
+            }
+            if (ceiling - floor + 2 > MAX_TABLE_SIZE) {
+                return new CompiledChain(handlers, null, 0);
+            }
+            
+            SupportHandler[] lookup = new SupportHandler[(int) (ceiling - floor + 2)];
+            for (int slot = 0; slot < lookup.length; slot++) {
+                long priority = floor + slot;
+                for (SupportHandler handler : handlers) {
+                    if (((PriorityRouted) handler).maxPriority() >= priority) {
+                        lookup[slot] = handler;
+                        break;
+                    }
+                }
+            }
+            return new CompiledChain(handlers, lookup, (int) floor);
+        }
+        
+        public boolean isTableDriven() {
+            return lookup != null;
+        }
+        
+        // Returns false when no handler in the chain accepts the request
+        public boolean dispatch(String issue, int priority) {
+            SupportHandler handler = lookup != null ? lookupHandler(priority) : scan(issue, priority);
+            if (handler == null) {
+                return false;
+            }
+            handler.handle(issue, priority);
+            return true;
+        }
+        
+        private SupportHandler lookupHandler(int priority) {
+            long slot = Math.min(Math.max((long) priority - floor, 0), lookup.length - 1);
+            return lookup[(int) slot];
+        }
+        
+        private SupportHandler scan(String issue, int priority) {
+            for (SupportHandler handler : handlers) {
+                if (handler.canHandle(issue, priority)) {
+                    return handler;
+                }
+            }
+            return null;
+        }
+    }
+    
+    // Routes through the current compiled chain; swaps are copy-on-write and never block requests
+    private static final class SupportRouter {
+        private final AtomicReference<CompiledChain> current;
+        
+        public SupportRouter(SupportHandler head) {
+            this.current = new AtomicReference<>(CompiledChain.compile(head));
+        }
+        
+        public boolean route(String issue, int priority) {
+            return current.get().dispatch(issue, priority);
+        }
+        
+        public void reconfigure(SupportHandler head) {
+            current.set(CompiledChain.compile(head));
+        }
+        
+        public boolean isTableDriven() {
+            return current.get().isTableDriven();
+        }
+    }
+    
+    private record Ticket(String issue, int priority, long enqueuedNanos) {
+        Ticket requeued() {
+            return new Ticket(issue, priority, System.nanoTime());
+        }
+    }
+    
+    private record LevelStats(String level, long peakQueueDepth, long handled, long failed, long escalated, 
+                              long unhandled, long averageLatencyMicros, long maxLatencyMicros) {
+        double escalationRate() {
+            long total = handled + failed + escalated + unhandled;
+            return total == 0 ? 0 : (double) escalated / total;
+        }
+    }
+    
+    /*
+     * One support level: a bounded queue drained by its own worker threads.
+     * A ticket the level cannot handle is escalated by putting it on the next
+     * level's queue. That put blocks while the next queue is full, so pressure
+     * travels back toward the submitters. Escalation only moves down the
+     * chain, so blocked workers cannot wait on each other in a cycle.
+     * The last level has nowhere to escalate, so a ticket it cannot handle
+     * is logged and counted as unhandled, as the synchronous chain drops it.
+     * Latency runs from the moment a ticket entered this level's queue. A
+     * handler that throws fails only its ticket; the worker moves on.
+     */
+    private static final class SupportLevel {
+        private final String name;
+        private final SupportHandler handler;
+        private final BlockingQueue<Ticket> queue;
+        private final SupportLevel next;
+        private final AtomicLong outstanding;
+        private final List<Thread> workers = new ArrayList<>();
+        private final LongAdder handled = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder escalated = new LongAdder();
+        private final LongAdder unhandled = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+        private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator peakQueueDepth = new LongAccumulator(Math::max, 0);
+        
+        SupportLevel(String name, SupportHandler handler, int capacity, SupportLevel next, AtomicLong outstanding) {
+            this.name = name;
+            this.handler = handler;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.next = next;
+            this.outstanding = outstanding;
+        }
+        
+        void start(int workerCount) {
+            for (int i = 0; i < workerCount; i++) {
+                Thread worker = Thread.ofPlatform().daemon().name(name + "-worker-" + i).start(this::work);
+                workers.add(worker);
+            }
+        }
+        
+        private void work() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    process(queue.take());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        private void process(Ticket ticket) throws InterruptedException {
+            boolean escalate = false;
+            try {
+                if (handler.canHandle(ticket.issue(), ticket.priority())) {
+                    handler.handle(ticket.issue(), ticket.priority());
+                    handled.increment();
+                } else if (next != null) {
+                    escalate = true;
+                } else {
+                    unhandled.increment();
+                    Logger.log(name + ": No handler for ticket - " + ticket.issue());
+                }
+            } catch (RuntimeException e) {
+                failed.increment();
+            } finally {
+                if (!escalate) {
+                    long latency = System.nanoTime() - ticket.enqueuedNanos();
+                    latencyNanos.add(latency);
+                    maxLatencyNanos.accumulate(latency);
+                    complete();
+                }
+            }
+            if (escalate) {
+                escalated.increment();
+                next.put(ticket.requeued());
+            }
+        }
+        
+        void put(Ticket ticket) throws InterruptedException {
+            queue.put(ticket);
+            peakQueueDepth.accumulate(queue.size());
+        }
+        
+        boolean offer(Ticket ticket, long timeout, TimeUnit unit) throws InterruptedException {
+            boolean accepted = queue.offer(ticket, timeout, unit);
+            if (accepted) {
+                peakQueueDepth.accumulate(queue.size());
+            }
+            return accepted;
+        }
+        
+        private void complete() {
+            if (outstanding.decrementAndGet() == 0) {
+                synchronized (outstanding) {
+                    outstanding.notifyAll();
+                }
+            }
+        }
+        
+        void stop() throws InterruptedException {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        
+        LevelStats stats() {
+            long count = handled.sum() + failed.sum() + unhandled.sum();
+            return new LevelStats(name, peakQueueDepth.get(), handled.sum(), failed.sum(), escalated.sum(), 
+                    unhandled.sum(), count == 0 ? 0 : latencyNanos.sum() / count / 1_000, maxLatencyNanos.get() / 1_000);
+        }
+    }
+    
+    // Turns a setNext chain into per-level queues and worker pools; submit blocks only when level 1 is full
+    private static final class AsyncSupportPipeline implements AutoCloseable {
+        private final List<SupportLevel> levels = new ArrayList<>();
+        private final AtomicLong outstanding = new AtomicLong();
+        
+        public AsyncSupportPipeline(SupportHandler head, int queueCapacity, int workersPerLevel) {
+            List<SupportHandler> chain = new ArrayList<>();
+            for (SupportHandler handler = head; handler != null; handler = handler.nextHandler) {
+                chain.add(handler);
+            }
+            SupportLevel next = null;
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                next = new SupportLevel("level" + (i + 1), chain.get(i), queueCapacity, next, outstanding);
+                levels.add(0, next);
+            }
+            for (SupportLevel level : levels) {
+                level.start(workersPerLevel);
+            }
+        }
+        
+        public void submit(String issue, int priority) throws InterruptedException {
+            outstanding.incrementAndGet();
+            levels.get(0).put(new Ticket(issue, priority, System.nanoTime()));
+        }
+        
+        // Non-blocking alternative for producers that must never wait: false if level 1 stayed full
+        public boolean trySubmit(String issue, int priority, long timeout, TimeUnit unit) 
+                throws InterruptedException {
+            outstanding.incrementAndGet();
+            boolean accepted = levels.get(0).offer(new Ticket(issue, priority, System.nanoTime()), timeout, unit);
+            if (!accepted) {
+                outstanding.decrementAndGet();
+            }
+            return accepted;
+        }
+        
+        public void awaitIdle() throws InterruptedException {
+            synchronized (outstanding) {
+                while (outstanding.get() > 0) {
+                    outstanding.wait(10);
+                }
+            }
+        }
+        
+        public List<LevelStats> stats() {
+            return levels.stream().map(SupportLevel::stats).toList();
+        }
+        
+        @Override
+        public void close() throws InterruptedException {
+            for (SupportLevel level : levels) {
+                level.stop();
+            }
+        }
     }
     
     @Override
@@ -71,5 +491,105 @@ public final class ChainOfResponsibilityPattern implements Demonstrable {
         
         Logger.logSection("High Priority Issue");
         level1.handleRequest("System down", 3);
+        
+        Logger.logSection("Compiled Chain (priority lookup table)");
+        SupportRouter router = new SupportRouter(level1);
+        Logger.log("Table-driven: " + router.isTableDriven());
+        router.route("Password reset", 1);
+        router.route("System down", 3);
+        
+        Logger.logSection("Reconfigured Chain (predicate handler, iterative fallback)");
+        SupportHandler security = new SecuritySupport();
+        security.setNext(level1);
+        router.reconfigure(security);
+        Logger.log("Table-driven: " + router.isTableDriven());
+        router.route("Security breach reported", 1);
+        router.route("Software bug", 2);
+        
+        Logger.logSection("Long Chain Benchmark (1,000 handlers)");
+        int chainLength = 1_000;
+        SupportHandler head = new TierSupport(0);
+        SupportHandler tail = head;
+        for (int tier = 1; tier < chainLength; tier++) {
+            SupportHandler next = new TierSupport(tier);
+            tail.setNext(next);
+            tail = next;
+        }
+        SupportRouter longRouter = new SupportRouter(head);
+        int requests = 200_000;
+        int[] priorities = new int[requests];
+        Random random = new Random(3);
+        for (int i = 0; i < requests; i++) {
+            priorities[i] = random.nextInt(chainLength);
+        }
+        long linkedNanos = Long.MAX_VALUE;
+        long compiledNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int priority : priorities) {
+                head.handleRequest("ticket", priority);
+            }
+            linkedNanos = Math.min(linkedNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int priority : priorities) {
+                longRouter.route("ticket", priority);
+            }
+            compiledNanos = Math.min(compiledNanos, System.nanoTime() - start);
+        }
+        Logger.log(String.format("Linked chain: %d ns/request, compiled table: %d ns/request", 
+                linkedNanos / requests, compiledNanos / requests));
+        
+        try {
+            demonstrateAsyncPipeline(level1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Logger.log("Asynchronous pipeline interrupted");
+        }
+    }
+    
+    private void demonstrateAsyncPipeline(SupportHandler level1) throws InterruptedException {
+        Logger.logSection("Asynchronous Pipeline (per-level queues and workers)");
+        try (AsyncSupportPipeline pipeline = new AsyncSupportPipeline(level1, 16, 1)) {
+            pipeline.submit("Password reset", 1);
+            pipeline.submit("Software bug", 2);
+            if (!pipeline.trySubmit("System down", 3, 10, TimeUnit.MILLISECONDS)) {
+                Logger.log("Level 1 queue full, ticket rejected");
+            }
+            pipeline.awaitIdle();
+        }
+        
+        // A chain whose last level is the security team leaves other tickets unhandled
+        SupportHandler security = new SecuritySupport();
+        try (AsyncSupportPipeline pipeline = new AsyncSupportPipeline(security, 16, 1)) {
+            pipeline.submit("Security breach reported", 3);
+            pipeline.submit("Printer jam", 1);
+            pipeline.awaitIdle();
+            LevelStats stats = pipeline.stats().get(0);
+            Logger.log("Security-only chain: handled " + stats.handled() + ", unhandled " + stats.unhandled());
+        }
+        
+        Logger.logSection("Ticket Burst (3 levels, queues of 1,024, 2 workers each)");
+        SupportHandler tier1 = new TierSupport(1);
+        SupportHandler tier2 = new TierSupport(2);
+        tier1.setNext(tier2);
+        tier2.setNext(new TierSupport(Integer.MAX_VALUE));
+        int burst = 100_000;
+        Random random = new Random(5);
+        try (AsyncSupportPipeline pipeline = new AsyncSupportPipeline(tier1, 1_024, 2)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < burst; i++) {
+                pipeline.submit("ticket", 1 + random.nextInt(3));
+            }
+            long submitMillis = (System.nanoTime() - start) / 1_000_000;
+            pipeline.awaitIdle();
+            long totalMillis = (System.nanoTime() - start) / 1_000_000;
+            Logger.log(burst + " tickets submitted in " + submitMillis + "ms, all handled in " + totalMillis + "ms");
+            for (LevelStats stats : pipeline.stats()) {
+                Logger.log(String.format("%s: peak depth %d, handled %d, failed %d, unhandled %d, " 
+                        + "escalation rate %.2f, avg latency %dus, max %dus", stats.level(), stats.peakQueueDepth(), 
+                        stats.handled(), stats.failed(), stats.unhandled(), stats.escalationRate(), 
+                        stats.averageLatencyMicros(), stats.maxLatencyMicros()));
+            }
+        }
     }
 }
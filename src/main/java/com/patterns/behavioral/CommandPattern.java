@@ -2,6 +2,31 @@ package com.patterns.behavioral;
 
 import com.patterns.common.Demonstrable;
 import com.patterns.common.Logger;
+import com.patterns.common.VectorSupport;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
 
 /**
  * Command Pattern - Encapsulates a request as an object, thereby letting
@@ -11,16 +36,33 @@ public final class CommandPattern implements Demonstrable {
     
     // Receiver
     private static final class Light {
+        private final boolean verbose;
         private boolean isOn = false;
         
+        public Light() {
+            this(true);
+        }
+        
+        public Light(boolean verbose) {
+            this.verbose = verbose;
+        }
+        
         public void turnOn() {
             isOn = true;
-            Logger.log("Light is ON");
+            if (verbose) {
+                Logger.log("Light is ON");
+            }
         }
         
         public void turnOff() {
             isOn = false;
-            Logger.log("Light is OFF");
+            if (verbose) {
+                Logger.log("Light is OFF");
+            }
+        }
+        
+        public boolean isOn() {
+            return isOn;
         }
     }
     
@@ -28,6 +70,15 @@ public final class CommandPattern implements Demonstrable {
     private interface Command {
         void execute();
         void undo();
+        
+        // Returns one command equivalent to running this and then next, or null if they do not merge
+        default Command coalesce(Command next) {
+            return null;
+        }
+        
+        // Called when a history drops the oldest entry for this command, which can no longer be undone
+        default void evicted() {
+        }
     }
     
     // Concrete Commands
@@ -38,6 +89,12 @@ public final class CommandPattern implements Demonstrable {
             this.light = light;
         }
         
+        // Switching the same light again overrides this command
+        @Override
+        public Command coalesce(Command next) {
+            return switchesLight(next, light) ? new CoalescedSwitchCommand(light, next) : null;
+        }
+        
         @Override
         public void execute() {
             light.turnOn();
@@ -56,6 +113,12 @@ public final class CommandPattern implements Demonstrable {
             this.light = light;
         }
         
+        // Switching the same light again overrides this command
+        @Override
+        public Command coalesce(Command next) {
+            return switchesLight(next, light) ? new CoalescedSwitchCommand(light, next) : null;
+        }
+        
         @Override
         public void execute() {
             light.turnOff();
@@ -67,6 +130,42 @@ public final class CommandPattern implements Demonstrable {
         }
     }
     
+    /*
+     * Several switches of one light merged into one step. Execute runs only the
+     * last switch, after noting whether the light was on, so undo restores the
+     * state from before the first switch rather than inverting the last one.
+     */
+    private static final class CoalescedSwitchCommand implements Command {
+        private final Light light;
+        private final Command last;
+        private boolean wasOn;
+        
+        public CoalescedSwitchCommand(Light light, Command last) {
+            this.light = light;
+            this.last = last;
+        }
+        
+        @Override
+        public Command coalesce(Command next) {
+            return switchesLight(next, light) ? new CoalescedSwitchCommand(light, next) : null;
+        }
+        
+        @Override
+        public void execute() {
+            wasOn = light.isOn();
+            last.execute();
+        }
+        
+        @Override
+        public void undo() {
+            if (wasOn) {
+                light.turnOn();
+            } else {
+                light.turnOff();
+            }
+        }
+    }
+    
     // Invoker
     private static final class RemoteControl {
         private Command command;
@@ -88,6 +187,869 @@ public final class CommandPattern implements Demonstrable {
         }
     }
     
+    private static boolean switchesLight(Command command, Light light) {
+        return (command instanceof TurnOnCommand on && on.light == light)
+            || (command instanceof TurnOffCommand off && off.light == light);
+    }
+    
+    /*
+     * Fixed-capacity undo/redo history. Slots [start, start + count) hold
+     * commands; the first cursor of them are applied and the rest can be
+     * redone. Recording a new command drops the redo tail, and once the ring is
+     * full the oldest entry is overwritten, so memory stays flat.
+     */
+    private static final class CommandHistory {
+        private final Command[] ring;
+        private int start;
+        private int count;
+        private int cursor;
+        
+        public CommandHistory(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("History capacity must be positive");
+            }
+            this.ring = new Command[capacity];
+        }
+        
+        public void record(Command command) {
+            count = cursor;
+            if (count == ring.length) {
+                ring[start].evicted();
+                start = (start + 1) % ring.length;
+                count--;
+            }
+            ring[(start + count) % ring.length] = command;
+            count++;
+            cursor = count;
+        }
+        
+        public Command undo() {
+            if (cursor == 0) {
+                return null;
+            }
+            cursor--;
+            return ring[(start + cursor) % ring.length];
+        }
+        
+        public Command redo() {
+            if (cursor == count) {
+                return null;
+            }
+            Command command = ring[(start + cursor) % ring.length];
+            cursor++;
+            return command;
+        }
+        
+        public int size() {
+            return count;
+        }
+    }
+    
+    /*
+     * Invoker that queues commands and runs them in batches. Before a batch
+     * runs, each command is merged with the last command kept in that batch
+     * when the pair coalesces. A merged command executes once and is undone
+     * as a single step.
+     */
+    private static final class BatchingRemoteControl {
+        private final Command[] pending;
+        private final CommandHistory history;
+        private int pendingCount;
+        private long submitted;
+        private long executed;
+        
+        public BatchingRemoteControl(int batchSize, int historyCapacity) {
+            this.pending = new Command[batchSize];
+            this.history = new CommandHistory(historyCapacity);
+        }
+        
+        public void submit(Command command) {
+            submitted++;
+            if (pendingCount > 0) {
+                Command merged = pending[pendingCount - 1].coalesce(command);
+                if (merged != null) {
+                    pending[pendingCount - 1] = merged;
+                    return;
+                }
+            }
+            pending[pendingCount++] = command;
+            if (pendingCount == pending.length) {
+                flush();
+            }
+        }
+        
+        public void flush() {
+            for (int i = 0; i < pendingCount; i++) {
+                pending[i].execute();
+                history.record(pending[i]);
+                pending[i] = null;
+            }
+            executed += pendingCount;
+            pendingCount = 0;
+        }
+        
+        public boolean pressUndo() {
+            flush();
+            Command command = history.undo();
+            if (command != null) {
+                command.undo();
+            }
+            return command != null;
+        }
+        
+        public boolean pressRedo() {
+            flush();
+            Command command = history.redo();
+            if (command != null) {
+                command.execute();
+            }
+            return command != null;
+        }
+        
+        public long submitted() {
+            return submitted;
+        }
+        
+        public long executed() {
+            return executed;
+        }
+        
+        public int historySize() {
+            return history.size();
+        }
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    // Stable numeric ids for lights; journals refer to lights by registration order
+    private static final class LightRegistry {
+        private final List<Light> lights = new ArrayList<>();
+        private final Map<Light, Integer> ids = new IdentityHashMap<>();
+        
+        public int register(Light light) {
+            ids.put(light, lights.size());
+            lights.add(light);
+            return lights.size() - 1;
+        }
+        
+        public Light get(int id) {
+            return lights.get(id);
+        }
+        
+        public int idOf(Light light) {
+            Integer id = ids.get(light);
+            if (id == null) {
+                throw new IllegalArgumentException("Light is not registered");
+            }
+            return id;
+        }
+        
+        public int size() {
+            return lights.size();
+        }
+    }
+    
+    /*
+     * Write-ahead journal for light commands. A record is one opcode byte and
+     * a varint light id. A dedicated flusher copies up to maxGroupSize pending
+     * records into one CRC-framed group in a memory-mapped window and forces
+     * it with a single fsync. Only then does it apply the group's commands,
+     * in journal order, and release every submitter in the group together, so
+     * no command changes a light before its record is on disk. If a write
+     * fails, the flusher stops and every waiting submitter gets the failure.
+     * Recovery loads the latest valid snapshot and then replays the
+     * groups written after it, stopping at the first empty or corrupt frame.
+     * The flusher tracks the durable light state in a shadow bit set and
+     * snapshots it every snapshotInterval records, which bounds replay time.
+     */
+    private static final class CommandJournal implements AutoCloseable {
+        private static final byte TURN_ON = 1;
+        private static final byte TURN_OFF = 2;
+        private static final int FRAME_HEADER = 2 * Integer.BYTES;
+        private static final int SEGMENT_SIZE = 1 << 20;
+        private static final int SNAPSHOT_MAGIC = 0x4C534E50;
+        
+        private final LightRegistry registry;
+        private final FileChannel channel;
+        private final Path snapshotPath;
+        private final int maxGroupSize;
+        private final long snapshotInterval;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition pendingAvailable = lock.newCondition();
+        private final Condition durable = lock.newCondition();
+        private final Thread flusher;
+        private ByteBuffer pending = ByteBuffer.allocate(4096);
+        private int[] recordEnds = new int[256];
+        private Command[] pendingCommands = new Command[256];
+        private int pendingRecords;
+        private long appendedSequence;
+        private long durableSequence;
+        private boolean closed;
+        private RuntimeException failure;
+        private long groups;
+        private long recoveredRecords;
+        
+        // Owned by the flusher thread after recovery
+        private final BitSet shadow = new BitSet();
+        private final CRC32C crc = new CRC32C();
+        private ByteBuffer group = ByteBuffer.allocate(4096);
+        private final Command[] groupCommands;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long writePosition;
+        private long recordsSinceSnapshot;
+        
+        public CommandJournal(Path journalPath, Path snapshotPath, LightRegistry registry, 
+                              int maxGroupSize, long snapshotInterval) throws IOException {
+            this.registry = registry;
+            this.snapshotPath = snapshotPath;
+            this.maxGroupSize = maxGroupSize;
+            this.snapshotInterval = snapshotInterval;
+            this.groupCommands = new Command[maxGroupSize];
+            this.channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, 
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            recover();
+            this.flusher = Thread.ofPlatform().daemon().name("journal-flusher").start(this::flushLoop);
+        }
+        
+        // Journals the command and returns once its group is durable and the command applied
+        public void execute(Command command) throws InterruptedException {
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("Journal is closed");
+                }
+                throwIfFailed();
+                appendRecord(command);
+                long sequence = ++appendedSequence;
+                pendingAvailable.signal();
+                while (durableSequence < sequence) {
+                    throwIfFailed();
+                    durable.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        private void throwIfFailed() {
+            if (failure != null) {
+                throw new IllegalStateException("Journal write failed", failure);
+            }
+        }
+        
+        private void appendRecord(Command command) {
+            if (pending.remaining() < 6) {
+                pending = ByteBuffer.allocate(pending.capacity() * 2).put(pending.flip());
+            }
+            if (command instanceof TurnOnCommand on) {
+                pending.put(TURN_ON);
+                putVarint(pending, registry.idOf(on.light));
+            } else if (command instanceof TurnOffCommand off) {
+                pending.put(TURN_OFF);
+                putVarint(pending, registry.idOf(off.light));
+            } else {
+                throw new IllegalArgumentException("Command cannot be journaled: " + command);
+            }
+            if (pendingRecords == recordEnds.length) {
+                recordEnds = Arrays.copyOf(recordEnds, recordEnds.length * 2);
+                pendingCommands = Arrays.copyOf(pendingCommands, pendingCommands.length * 2);
+            }
+            pendingCommands[pendingRecords] = command;
+            recordEnds[pendingRecords++] = pending.position();
+        }
+        
+        private void flushLoop() {
+            try {
+                while (true) {
+                    int count;
+                    lock.lock();
+                    try {
+                        while (pendingRecords == 0 && !closed) {
+                            pendingAvailable.await();
+                        }
+                        if (pendingRecords == 0) {
+                            return;
+                        }
+                        count = Math.min(pendingRecords, maxGroupSize);
+                        takeGroup(count);
+                    } finally {
+                        lock.unlock();
+                    }
+                    
+                    writeGroup(count);
+                    
+                    lock.lock();
+                    try {
+                        for (int i = 0; i < count; i++) {
+                            groupCommands[i].execute();
+                            groupCommands[i] = null;
+                        }
+                        durableSequence += count;
+                        groups++;
+                        durable.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (recordsSinceSnapshot >= snapshotInterval) {
+                        writeSnapshot();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    durable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        
+        // Moves the first count pending records into the group buffer; called under the lock
+        private void takeGroup(int count) {
+            int bytes = recordEnds[count - 1];
+            if (group.capacity() < FRAME_HEADER + bytes) {
+                group = ByteBuffer.allocate(Math.max(FRAME_HEADER + bytes, group.capacity() * 2));
+            }
+            group.clear().position(FRAME_HEADER);
+            group.put(group.position(), pending, 0, bytes).position(FRAME_HEADER + bytes);
+            
+            int remaining = pending.position() - bytes;
+            pending.put(0, pending, bytes, remaining).position(remaining);
+            System.arraycopy(pendingCommands, 0, groupCommands, 0, count);
+            for (int i = count; i < pendingRecords; i++) {
+                recordEnds[i - count] = recordEnds[i] - bytes;
+                pendingCommands[i - count] = pendingCommands[i];
+            }
+            pendingRecords -= count;
+            Arrays.fill(pendingCommands, pendingRecords, pendingRecords + count, null);
+        }
+        
+        private void writeGroup(int count) {
+            int payload = group.position() - FRAME_HEADER;
+            crc.reset();
+            crc.update(group.array(), FRAME_HEADER, payload);
+            group.putInt(0, payload).putInt(Integer.BYTES, (int) crc.getValue()).flip();
+            
+            int frameSize = group.remaining();
+            try {
+                if (window == null || writePosition + frameSize > windowStart + window.capacity()) {
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, writePosition, 
+                            Math.max(SEGMENT_SIZE, frameSize));
+                    windowStart = writePosition;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int offset = (int) (writePosition - windowStart);
+            window.put(offset, group, 0, frameSize);
+            window.force(offset, frameSize);
+            writePosition += frameSize;
+            
+            applyRecords(group.position(FRAME_HEADER).limit(FRAME_HEADER + payload), shadow);
+            recordsSinceSnapshot += count;
+        }
+        
+        private static void applyRecords(ByteBuffer records, BitSet state) {
+            while (records.hasRemaining()) {
+                byte opcode = records.get();
+                state.set(getVarint(records), opcode == TURN_ON);
+            }
+        }
+        
+        // Snapshot layout: magic, journal offset, state length, state bytes, CRC32C of all of it
+        private void writeSnapshot() {
+            byte[] state = shadow.toByteArray();
+            ByteBuffer snapshot = ByteBuffer.allocate(Integer.BYTES * 3 + Long.BYTES + state.length);
+            snapshot.putInt(SNAPSHOT_MAGIC).putLong(writePosition).putInt(state.length).put(state);
+            CRC32C checksum = new CRC32C();
+            checksum.update(snapshot.array(), 0, snapshot.position());
+            snapshot.putInt((int) checksum.getValue());
+            try {
+                Path temporary = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+                try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, 
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    out.write(snapshot.flip());
+                    out.force(true);
+                }
+                Files.move(temporary, snapshotPath, StandardCopyOption.ATOMIC_MOVE, 
+                        StandardCopyOption.REPLACE_EXISTING);
+                recordsSinceSnapshot = 0;
+            } catch (IOException e) {
+                Logger.log("Journal: snapshot failed, replay will start further back - " + e.getMessage());
+            }
+        }
+        
+        private void recover() throws IOException {
+            long offset = readSnapshot();
+            long size = channel.size();
+            if (offset < size) {
+                MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, offset, size - offset);
+                CRC32C checksum = new CRC32C();
+                while (log.remaining() >= FRAME_HEADER) {
+                    int payload = log.getInt(log.position());
+                    if (payload <= 0 || payload > log.remaining() - FRAME_HEADER) {
+                        break;
+                    }
+                    int start = log.position() + FRAME_HEADER;
+                    checksum.reset();
+                    checksum.update(log.slice(start, payload));
+                    if ((int) checksum.getValue() != log.getInt(log.position() + Integer.BYTES)) {
+                        break;
+                    }
+                    ByteBuffer records = log.slice(start, payload);
+                    while (records.hasRemaining()) {
+                        byte opcode = records.get();
+                        shadow.set(getVarint(records), opcode == TURN_ON);
+                        recoveredRecords++;
+                    }
+                    log.position(start + payload);
+                    offset += FRAME_HEADER + payload;
+                }
+            }
+            writePosition = offset;
+            for (int id = 0; id < registry.size(); id++) {
+                if (shadow.get(id)) {
+                    registry.get(id).turnOn();
+                } else {
+                    registry.get(id).turnOff();
+                }
+            }
+        }
+        
+        // Returns the journal offset the snapshot covers, or 0 if there is no valid snapshot
+        private long readSnapshot() throws IOException {
+            if (!Files.exists(snapshotPath)) {
+                return 0;
+            }
+            ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+            if (snapshot.remaining() < Integer.BYTES * 3 + Long.BYTES || snapshot.getInt() != SNAPSHOT_MAGIC) {
+                return 0;
+            }
+            long offset = snapshot.getLong();
+            int length = snapshot.getInt();
+            if (length < 0 || length != snapshot.remaining() - Integer.BYTES) {
+                return 0;
+            }
+            CRC32C checksum = new CRC32C();
+            checksum.update(snapshot.array(), 0, snapshot.limit() - Integer.BYTES);
+            if ((int) checksum.getValue() != snapshot.getInt(snapshot.limit() - Integer.BYTES)) {
+                return 0;
+            }
+            byte[] state = new byte[length];
+            snapshot.get(state);
+            shadow.or(BitSet.valueOf(state));
+            return offset;
+        }
+        
+        private static void putVarint(ByteBuffer buffer, int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+        
+        private static int getVarint(ByteBuffer buffer) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+        
+        public long recoveredRecords() {
+            return recoveredRecords;
+        }
+        
+        public double averageGroupSize() {
+            lock.lock();
+            try {
+                return groups == 0 ? 0 : (double) durableSequence / groups;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        @Override
+        public void close() throws IOException, InterruptedException {
+            lock.lock();
+            try {
+                closed = true;
+                pendingAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+            flusher.join();
+            channel.close();
+        }
+    }
+    
+    private static LightRegistry silentLights(int count) {
+        LightRegistry registry = new LightRegistry();
+        for (int i = 0; i < count; i++) {
+            registry.register(new Light(false));
+        }
+        return registry;
+    }
+    
+    // Submitters run on platform threads and each wait for durability before the next command
+    private static long runJournaled(CommandJournal journal, LightRegistry registry, int threads, 
+                                     int commandsPerThread) throws InterruptedException {
+        List<Thread> submitters = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            submitters.add(Thread.ofPlatform().start(() -> {
+                Random random = new Random(seed);
+                try {
+                    for (int i = 0; i < commandsPerThread; i++) {
+                        Light light = registry.get(random.nextInt(registry.size()));
+                        journal.execute(random.nextBoolean() ? new TurnOnCommand(light) : new TurnOffCommand(light));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        return System.nanoTime() - start;
+    }
+    
+    private static void deleteJournalFiles(Path directory) {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            Logger.log("Could not delete journal files: " + e.getMessage());
+        }
+    }
+    
+    /*
+     * Bulk device store: one bit per device in long words. A bulk operation
+     * rewrites whole words: OR to switch on, AND-NOT to switch off, XOR to
+     * toggle. It returns the XOR of the old and new words, which is all that
+     * undo needs.
+     */
+    private static final class DeviceBank {
+        static final int SET = 0;
+        static final int CLEAR = 1;
+        static final int TOGGLE = 2;
+        
+        private final long[] words;
+        private final int deviceCount;
+        private final long tailMask;
+        private final boolean vectorized;
+        
+        public DeviceBank(int deviceCount, boolean preferVector) {
+            this.deviceCount = deviceCount;
+            this.words = new long[(deviceCount + 63) >>> 6];
+            this.tailMask = -1L >>> -deviceCount;
+            this.vectorized = preferVector && VectorSupport.isAvailable();
+        }
+        
+        // Applies op to devices [from, to); the edge words are masked so only the range changes
+        public BitDiff applyRange(int from, int to, int op) {
+            checkRange(from, to);
+            if (from == to) {
+                return BitDiff.EMPTY;
+            }
+            int firstWord = from >>> 6;
+            int lastWord = (to - 1) >>> 6;
+            long[] diff = new long[lastWord - firstWord + 1];
+            long firstMask = -1L << from;
+            long lastMask = -1L >>> -to;
+            if (firstWord == lastWord) {
+                diff[0] = applyWord(firstWord, firstMask & lastMask, op);
+            } else {
+                diff[0] = applyWord(firstWord, firstMask, op);
+                applyConstant(firstWord + 1, lastWord, op, diff, 1);
+                diff[diff.length - 1] = applyWord(lastWord, lastMask, op);
+            }
+            return BitDiff.sparse(firstWord, diff);
+        }
+        
+        // Applies op to every device whose bit is set in the group mask; mask bits
+        // past the last device are ignored so they never become phantom devices
+        public BitDiff applyMask(long[] mask, int op) {
+            if (mask.length != words.length) {
+                throw new IllegalArgumentException("Mask must have " + words.length + " words");
+            }
+            long[] diff = new long[words.length];
+            int lastWord = words.length - 1;
+            if (lastWord < 0) {
+                return BitDiff.EMPTY;
+            }
+            if (vectorized) {
+                VectorBitKernel.apply(words, 0, lastWord, mask, op, diff);
+            } else {
+                for (int w = 0; w < lastWord; w++) {
+                    diff[w] = applyWord(w, mask[w], op);
+                }
+            }
+            diff[lastWord] = applyWord(lastWord, mask[lastWord] & tailMask, op);
+            return BitDiff.sparse(0, diff);
+        }
+        
+        private void applyConstant(int from, int to, int op, long[] diff, int diffOffset) {
+            if (vectorized) {
+                VectorBitKernel.applyConstant(words, from, to, op, diff, diffOffset);
+            } else {
+                for (int w = from; w < to; w++) {
+                    diff[diffOffset + w - from] = applyWord(w, -1L, op);
+                }
+            }
+        }
+        
+        private long applyWord(int word, long mask, int op) {
+            long old = words[word];
+            long updated = switch (op) {
+                case SET -> old | mask;
+                case CLEAR -> old & ~mask;
+                default -> old ^ mask;
+            };
+            words[word] = updated;
+            return old ^ updated;
+        }
+        
+        public void revert(BitDiff diff) {
+            for (int i = 0; i < diff.wordIndex.length; i++) {
+                words[diff.wordIndex[i]] ^= diff.bits[i];
+            }
+        }
+        
+        public boolean isOn(int device) {
+            return (words[device >>> 6] & (1L << device)) != 0;
+        }
+        
+        public long countOn() {
+            long count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+        
+        public int wordCount() {
+            return words.length;
+        }
+        
+        public boolean isVectorized() {
+            return vectorized;
+        }
+        
+        private void checkRange(int from, int to) {
+            if (from < 0 || to > deviceCount || from > to) {
+                throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") outside " + deviceCount);
+            }
+        }
+    }
+    
+    // Changed bits of a bulk command, kept only for words where something actually changed
+    private static final class BitDiff {
+        static final BitDiff EMPTY = new BitDiff(new int[0], new long[0]);
+        
+        private final int[] wordIndex;
+        private final long[] bits;
+        
+        private BitDiff(int[] wordIndex, long[] bits) {
+            this.wordIndex = wordIndex;
+            this.bits = bits;
+        }
+        
+        static BitDiff sparse(int firstWord, long[] dense) {
+            int changed = 0;
+            for (long word : dense) {
+                if (word != 0) {
+                    changed++;
+                }
+            }
+            int[] index = new int[changed];
+            long[] bits = new long[changed];
+            for (int i = 0, j = 0; i < dense.length; i++) {
+                if (dense[i] != 0) {
+                    index[j] = firstWord + i;
+                    bits[j++] = dense[i];
+                }
+            }
+            return new BitDiff(index, bits);
+        }
+        
+        long bytes() {
+            return (long) wordIndex.length * (Integer.BYTES + Long.BYTES);
+        }
+    }
+    
+    /*
+     * Bulk commands are ordinary Commands, so the batching invoker and its
+     * history apply unchanged. Each execution pushes its own diff and undo pops
+     * the latest, so one instance can sit in the history more than once. When
+     * the history evicts the oldest entry, the oldest diff goes with it, so the
+     * diffs kept never outnumber the entries that can still be undone.
+     */
+    private abstract static class BulkCommand implements Command {
+        protected final DeviceBank bank;
+        protected final int op;
+        private final Deque<BitDiff> diffs = new ArrayDeque<>();
+        
+        protected BulkCommand(DeviceBank bank, int op) {
+            this.bank = bank;
+            this.op = op;
+        }
+        
+        protected abstract BitDiff apply();
+        
+        @Override
+        public void execute() {
+            diffs.push(apply());
+        }
+        
+        @Override
+        public void undo() {
+            BitDiff diff = diffs.poll();
+            if (diff != null) {
+                bank.revert(diff);
+            }
+        }
+        
+        @Override
+        public void evicted() {
+            diffs.pollLast();
+        }
+        
+        public int retainedDiffs() {
+            return diffs.size();
+        }
+        
+        // Size of the diff kept for the latest execution that has not been undone
+        public long diffBytes() {
+            BitDiff diff = diffs.peek();
+            return diff == null ? 0 : diff.bytes();
+        }
+    }
+    
+    private static final class RangeCommand extends BulkCommand {
+        private final int from;
+        private final int to;
+        
+        public RangeCommand(DeviceBank bank, int from, int to, int op) {
+            super(bank, op);
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected BitDiff apply() {
+            return bank.applyRange(from, to, op);
+        }
+    }
+    
+    private static final class MaskCommand extends BulkCommand {
+        private final long[] mask;
+        
+        public MaskCommand(DeviceBank bank, long[] mask, int op) {
+            super(bank, op);
+            this.mask = mask;
+        }
+        
+        @Override
+        protected BitDiff apply() {
+            return bank.applyMask(mask, op);
+        }
+    }
+    
+    /*
+     * Only loaded once VectorSupport has confirmed jdk.incubator.vector is
+     * resolved. Each operation has its own loop with a constant lane operator.
+     * A lane operator held in a variable is not intrinsified and falls back to
+     * slow Java code.
+     */
+    private static final class VectorBitKernel {
+        private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+        
+        static void apply(long[] words, int from, int to, long[] mask, int op, long[] diff) {
+            int bound = from + SPECIES.loopBound(to - from);
+            switch (op) {
+                case DeviceBank.SET -> {
+                    for (int w = from; w < bound; w += SPECIES.length()) {
+                        LongVector old = LongVector.fromArray(SPECIES, words, w);
+                        LongVector updated = old.or(LongVector.fromArray(SPECIES, mask, w));
+                        store(old, updated, words, w, diff, w - from);
+                    }
+                }
+                case DeviceBank.CLEAR -> {
+                    for (int w = from; w < bound; w += SPECIES.length()) {
+                        LongVector old = LongVector.fromArray(SPECIES, words, w);
+                        LongVector updated = old.lanewise(VectorOperators.AND_NOT, 
+                                LongVector.fromArray(SPECIES, mask, w));
+                        store(old, updated, words, w, diff, w - from);
+                    }
+                }
+                default -> {
+                    for (int w = from; w < bound; w += SPECIES.length()) {
+                        LongVector old = LongVector.fromArray(SPECIES, words, w);
+                        LongVector updated = old.lanewise(VectorOperators.XOR, 
+                                LongVector.fromArray(SPECIES, mask, w));
+                        store(old, updated, words, w, diff, w - from);
+                    }
+                }
+            }
+            for (int w = bound; w < to; w++) {
+                long old = words[w];
+                words[w] = scalar(old, mask[w], op);
+                diff[w - from] = old ^ words[w];
+            }
+        }
+        
+        static void applyConstant(long[] words, int from, int to, int op, long[] diff, int diffOffset) {
+            int bound = from + SPECIES.loopBound(to - from);
+            LongVector ones = LongVector.broadcast(SPECIES, -1L);
+            LongVector zeros = LongVector.zero(SPECIES);
+            for (int w = from; w < bound; w += SPECIES.length()) {
+                LongVector old = LongVector.fromArray(SPECIES, words, w);
+                LongVector updated = switch (op) {
+                    case DeviceBank.SET -> ones;
+                    case DeviceBank.CLEAR -> zeros;
+                    default -> old.not();
+                };
+                store(old, updated, words, w, diff, diffOffset + w - from);
+            }
+            for (int w = bound; w < to; w++) {
+                long old = words[w];
+                words[w] = scalar(old, -1L, op);
+                diff[diffOffset + w - from] = old ^ words[w];
+            }
+        }
+        
+        private static void store(LongVector old, LongVector updated, long[] words, int w, 
+                                  long[] diff, int diffIndex) {
+            updated.intoArray(words, w);
+            old.lanewise(VectorOperators.XOR, updated).intoArray(diff, diffIndex);
+        }
+        
+        private static long scalar(long old, long mask, int op) {
+            return switch (op) {
+                case DeviceBank.SET -> old | mask;
+                case DeviceBank.CLEAR -> old & ~mask;
+                default -> old ^ mask;
+            };
+        }
+    }
+    
     @Override
     public void demonstrate() {
         Logger.logPattern("Command Pattern");
@@ -108,5 +1070,155 @@ public final class CommandPattern implements Demonstrable {
         
         Logger.logSection("Undo (Turn On again)");
         remote.pressUndo();
+        
+        Logger.logSection("Batched Queue (On, Off, On coalesced into one)");
+        BatchingRemoteControl batching = new BatchingRemoteControl(16, 8);
+        boolean onBeforeBatch = light.isOn();
+        batching.submit(new TurnOnCommand(light));
+        batching.submit(new TurnOffCommand(light));
+        batching.submit(new TurnOnCommand(light));
+        batching.flush();
+        Logger.log("Submitted " + batching.submitted() + ", executed " + batching.executed());
+        Logger.log("Undo:");
+        batching.pressUndo();
+        Logger.log("Restored the state from before the batch: " + (light.isOn() == onBeforeBatch));
+        Logger.log("Redo:");
+        batching.pressRedo();
+        
+        Logger.logSection("Command Stream (2,000,000 commands, 1,000 lights)");
+        int lightCount = 1_000;
+        Command[] onCommands = new Command[lightCount];
+        Command[] offCommands = new Command[lightCount];
+        List<Light> lights = new ArrayList<>();
+        for (int i = 0; i < lightCount; i++) {
+            Light silent = new Light(false);
+            lights.add(silent);
+            onCommands[i] = new TurnOnCommand(silent);
+            offCommands[i] = new TurnOffCommand(silent);
+        }
+        BatchingRemoteControl stream = new BatchingRemoteControl(4_096, 1_024);
+        Random random = new Random(9);
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < 2_000_000; i++) {
+            // Bursts on the same light give the coalescer adjacent pairs to merge
+            int index = (i / 4 + random.nextInt(2)) % lightCount;
+            stream.submit(random.nextBoolean() ? onCommands[index] : offCommands[index]);
+        }
+        stream.flush();
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        long heapAfter = usedHeap();
+        long lit = lights.stream().filter(Light::isOn).count();
+        Logger.log(String.format("%,d submitted, %,d executed after coalescing, %,d commands/s", 
+                stream.submitted(), stream.executed(), stream.submitted() * 1_000 / elapsedMillis));
+        Logger.log(String.format("History holds %d entries; heap change %+,d KB; %d lights on", 
+                stream.historySize(), (heapAfter - heapBefore) / 1024, lit));
+        
+        try {
+            demonstrateJournal();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Logger.log("Journal demonstration interrupted");
+        }
+        
+        demonstrateDeviceBank();
+    }
+    
+    private void demonstrateDeviceBank() {
+        int devices = 10_000_000;
+        Logger.logSection("Bit-Packed Device Bank (10,000,000 devices)");
+        DeviceBank bank = new DeviceBank(devices, true);
+        long[] evenGroup = new long[bank.wordCount()];
+        Arrays.fill(evenGroup, 0x5555_5555_5555_5555L);
+        
+        BatchingRemoteControl bulkRemote = new BatchingRemoteControl(1, 16);
+        RangeCommand allOn = new RangeCommand(bank, 0, 5_000_000, DeviceBank.SET);
+        MaskCommand toggleEven = new MaskCommand(bank, evenGroup, DeviceBank.TOGGLE);
+        RangeCommand someOff = new RangeCommand(bank, 2_000_003, 3_000_007, DeviceBank.CLEAR);
+        bulkRemote.submit(allOn);
+        Logger.log(String.format("Turn on 0..5,000,000: %,d on (diff %,d bytes)", bank.countOn(), allOn.diffBytes()));
+        bulkRemote.submit(toggleEven);
+        Logger.log(String.format("Toggle even group:    %,d on (diff %,d bytes)", bank.countOn(), toggleEven.diffBytes()));
+        bulkRemote.submit(someOff);
+        Logger.log(String.format("Turn off 2,000,003..3,000,007: %,d on (diff %,d bytes)", 
+                bank.countOn(), someOff.diffBytes()));
+        bulkRemote.pressUndo();
+        bulkRemote.pressUndo();
+        Logger.log(String.format("Undo twice: %,d on, device 1 on: %b", bank.countOn(), bank.isOn(1)));
+        bulkRemote.submit(someOff);
+        bulkRemote.submit(allOn);
+        Logger.log(String.format("Off again, same turn-on command again: %,d on (diff %,d bytes)", 
+                bank.countOn(), allOn.diffBytes()));
+        bulkRemote.pressUndo();
+        bulkRemote.pressUndo();
+        bulkRemote.pressUndo();
+        Logger.log(String.format("Undo all three: %,d on", bank.countOn()));
+        for (int i = 0; i < 40; i++) {
+            bulkRemote.submit(toggleEven);
+        }
+        Logger.log(String.format("Toggle even group 40 times with 16 history slots: %d diffs retained", 
+                toggleEven.retainedDiffs()));
+        DeviceBank oddSized = new DeviceBank(100, true);
+        oddSized.applyMask(new long[] {-1L, -1L}, DeviceBank.SET);
+        Logger.log(String.format("All-ones mask on a 100-device bank: %d on", oddSized.countOn()));
+        Logger.log(String.format("State: %,d bytes vs ~%,d bytes as Light objects", 
+                (long) bank.wordCount() * Long.BYTES, (long) devices * 16));
+        
+        DeviceBank scalarBank = new DeviceBank(devices, false);
+        long[] timings = new long[2];
+        DeviceBank[] banks = {scalarBank, bank};
+        for (int b = 0; b < banks.length; b++) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 40; round++) {
+                long start = System.nanoTime();
+                banks[b].applyMask(evenGroup, DeviceBank.TOGGLE);
+                banks[b].applyRange(1, devices - 1, DeviceBank.TOGGLE);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            timings[b] = best / 1_000;
+        }
+        Logger.log(String.format("Toggle mask + range: scalar %dus, %s %dus", timings[0], 
+                bank.isVectorized() ? "Vector API" : "scalar (Vector API unavailable)", timings[1]));
+    }
+    
+    private void demonstrateJournal() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("command-journal");
+        try {
+            Logger.logSection("Durable Journal (crash and replay)");
+            Path journalPath = directory.resolve("commands.journal");
+            Path snapshotPath = directory.resolve("lights.snapshot");
+            LightRegistry before = silentLights(64);
+            try (CommandJournal journal = new CommandJournal(journalPath, snapshotPath, before, 32, 1_500)) {
+                runJournaled(journal, before, 4, 1_000);
+            }
+            // Simulated crash: the in-memory lights are gone, only the files remain
+            LightRegistry after = silentLights(64);
+            boolean identical = true;
+            try (CommandJournal journal = new CommandJournal(journalPath, snapshotPath, after, 32, 1_500)) {
+                for (int id = 0; id < after.size(); id++) {
+                    identical &= before.get(id).isOn() == after.get(id).isOn();
+                }
+                Logger.log("Replayed " + journal.recoveredRecords() + " records after the last snapshot; " 
+                        + "light states match: " + identical);
+            }
+            
+            Logger.logSection("Group Commit Throughput (8 submitters)");
+            for (int groupSize : new int[] {1, 8, 64}) {
+                Path groupJournal = directory.resolve("group" + groupSize + ".journal");
+                Path groupSnapshot = directory.resolve("group" + groupSize + ".snapshot");
+                LightRegistry registry = silentLights(64);
+                try (CommandJournal journal = new CommandJournal(groupJournal, groupSnapshot, registry, 
+                        groupSize, 10_000)) {
+                    int commands = 8 * 500;
+                    long elapsed = runJournaled(journal, registry, 8, 500);
+                    Logger.log(String.format("Max group %2d: %,.0f commands/s, %.1f records per fsync", 
+                            groupSize, commands * 1e9 / elapsed, journal.averageGroupSize()));
+                }
+            }
+        } finally {
+            deleteJournalFiles(directory);
+        }
     }
 }
@@ -2,9 +2,35 @@ package com.patterns.behavioral;
 
 import com.patterns.common.Demonstrable;
 import com.patterns.common.Logger;
+import com.patterns.common.VectorSupport;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.CodeBuilder;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.Stack;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
 
 /**
  * Interpreter Pattern - Given a language, defines a representation for its
@@ -13,16 +39,91 @@ import java.util.Stack;
  */
 public final class InterpreterPattern implements Demonstrable {
     
-    // Context
+    // Assigns every variable name a fixed index into int[] frames; safe to share across threads
+    private static final class SlotTable {
+        private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+        private final AtomicInteger nextSlot = new AtomicInteger();
+        
+        public int slotOf(String name) {
+            return slots.computeIfAbsent(name, key -> nextSlot.getAndIncrement());
+        }
+        
+        public int find(String name) {
+            Integer slot = slots.get(name);
+            return slot == null ? -1 : slot;
+        }
+        
+        public int size() {
+            return nextSlot.get();
+        }
+        
+        // Resolution pass: rewrites every variable reference into a slot read
+        public Expression resolve(Expression expression) {
+            if (expression instanceof VariableExpression variable) {
+                return new SlotExpression(variable.name, slotOf(variable.name));
+            } else if (expression instanceof SlotExpression variable) {
+                return new SlotExpression(variable.name, slotOf(variable.name));
+            } else if (expression instanceof AddExpression add) {
+                return new AddExpression(resolve(add.left), resolve(add.right));
+            } else if (expression instanceof SubtractExpression subtract) {
+                return new SubtractExpression(resolve(subtract.left), resolve(subtract.right));
+            } else if (expression instanceof MultiplyExpression multiply) {
+                return new MultiplyExpression(resolve(multiply.left), resolve(multiply.right));
+            }
+            return expression;
+        }
+    }
+    
+    // Context: a reusable frame of primitive values, addressed by slot or by name
     private static final class Context {
-        private final Map<String, Integer> variables = new HashMap<>();
+        private final SlotTable slots;
+        private int[] frame;
+        private int[] registers = new int[0];
+        
+        public Context() {
+            this(new SlotTable());
+        }
+        
+        public Context(SlotTable slots) {
+            this.slots = slots;
+            this.frame = new int[Math.max(slots.size(), 4)];
+        }
         
         public void setVariable(String name, int value) {
-            variables.put(name, value);
+            setSlot(slots.slotOf(name), value);
         }
         
         public int getVariable(String name) {
-            return variables.getOrDefault(name, 0);
+            int slot = slots.find(name);
+            return slot < 0 ? 0 : getSlot(slot);
+        }
+        
+        public SlotTable slots() {
+            return slots;
+        }
+        
+        public void setSlot(int slot, int value) {
+            if (slot >= frame.length) {
+                frame = Arrays.copyOf(frame, Math.max(slot + 1, frame.length * 2));
+            }
+            frame[slot] = value;
+        }
+        
+        // Slots added to the table after this frame was sized read as unset
+        public int getSlot(int slot) {
+            return slot < frame.length ? frame[slot] : 0;
+        }
+        
+        public void clear() {
+            Arrays.fill(frame, 0);
+        }
+        
+        // Scratch registers for Formula evaluation, reused across evaluations
+        public int[] registers(int size) {
+            if (registers.length < size) {
+                registers = new int[size];
+            }
+            return registers;
         }
     }
     
@@ -58,6 +159,22 @@ public final class InterpreterPattern implements Demonstrable {
         }
     }
     
+    // Terminal Expression produced by SlotTable.resolve
+    private static final class SlotExpression implements Expression {
+        private final String name;
+        private final int slot;
+        
+        public SlotExpression(String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+        
+        @Override
+        public int interpret(Context context) {
+            return context.getSlot(slot);
+        }
+    }
+    
     // Non-terminal Expressions
     private static final class AddExpression implements Expression {
         private final Expression left;
@@ -89,6 +206,1119 @@ public final class InterpreterPattern implements Demonstrable {
         }
     }
     
+    private static final class MultiplyExpression implements Expression {
+        private final Expression left;
+        private final Expression right;
+        
+        public MultiplyExpression(Expression left, Expression right) {
+            this.left = left;
+            this.right = right;
+        }
+        
+        @Override
+        public int interpret(Context context) {
+            return left.interpret(context) * right.interpret(context);
+        }
+    }
+    
+    // Recursive-descent parser for infix text:
+    //   expression := term (('+' | '-') term)*
+    //   term       := factor ('*' factor)*
+    //   factor     := number | name | '(' expression ')' | '-' factor
+    // Nesting is capped, so hostile input fails with a parse error rather than
+    // exhausting the stack.
+    private static final class ExpressionParser {
+        private static final int MAX_DEPTH = 256;
+        
+        private final String source;
+        private int position;
+        private int depth;
+        
+        private ExpressionParser(String source) {
+            this.source = source;
+        }
+        
+        public static Expression parse(String source) {
+            ExpressionParser parser = new ExpressionParser(source);
+            Expression expression = parser.expression();
+            parser.skipWhitespace();
+            if (parser.position < source.length()) {
+                throw parser.error("Unexpected '" + source.charAt(parser.position) + "'");
+            }
+            return expression;
+        }
+        
+        private Expression expression() {
+            Expression result = term();
+            while (true) {
+                if (accept('+')) {
+                    result = new AddExpression(result, term());
+                } else if (accept('-')) {
+                    result = new SubtractExpression(result, term());
+                } else {
+                    return result;
+                }
+            }
+        }
+        
+        private Expression term() {
+            Expression result = factor();
+            while (accept('*')) {
+                result = new MultiplyExpression(result, factor());
+            }
+            return result;
+        }
+        
+        private Expression factor() {
+            if (depth == MAX_DEPTH) {
+                throw error("Expression nested deeper than " + MAX_DEPTH);
+            }
+            depth++;
+            try {
+                return primary();
+            } finally {
+                depth--;
+            }
+        }
+        
+        private Expression primary() {
+            if (accept('(')) {
+                Expression inner = expression();
+                if (!accept(')')) {
+                    throw error("Expected ')'");
+                }
+                return inner;
+            }
+            if (accept('-')) {
+                skipWhitespace();
+                if (atDigit()) {
+                    // Read with its sign, so -2147483648 is in range
+                    return number(true);
+                }
+                return new SubtractExpression(new NumberExpression(0), factor());
+            }
+            if (atDigit()) {
+                return number(false);
+            }
+            int start = position;
+            if (position < source.length() && Character.isJavaIdentifierStart(source.charAt(position))) {
+                while (position < source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+                    position++;
+                }
+                return new VariableExpression(source.substring(start, position));
+            }
+            throw error(position < source.length() 
+                ? "Unexpected '" + source.charAt(position) + "'" : "Unexpected end of input");
+        }
+        
+        private boolean atDigit() {
+            return position < source.length() && Character.isDigit(source.charAt(position));
+        }
+        
+        private Expression number(boolean negative) {
+            int start = position;
+            while (atDigit()) {
+                position++;
+            }
+            try {
+                long value = Long.parseLong(source, start, position, 10);
+                value = negative ? -value : value;
+                if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                    throw new NumberFormatException();
+                }
+                return new NumberExpression((int) value);
+            } catch (NumberFormatException e) {
+                throw error("Number out of range");
+            }
+        }
+        
+        private boolean accept(char expected) {
+            skipWhitespace();
+            if (position < source.length() && source.charAt(position) == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+        
+        private void skipWhitespace() {
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+        }
+        
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position + " in \"" + source + "\"");
+        }
+    }
+    
+    // Folds constants, applies algebraic identities and interns structurally equal
+    // subtrees, so the result is a DAG in which each distinct subexpression occurs once.
+    // Constants are kept on the right of + and *, and other commutative operands are
+    // ordered by intern id, so (x + 1) + 2 becomes x + 3 and y * x shares x * y.
+    private static final class ExpressionOptimizer {
+        private record Key(Class<?> type, Object left, Object right) {
+        }
+        
+        private final Map<Key, Expression> interned = new HashMap<>();
+        private final Map<Expression, Integer> ids = new IdentityHashMap<>();
+        
+        private ExpressionOptimizer() {
+        }
+        
+        public static Expression optimize(Expression expression) {
+            return new ExpressionOptimizer().rewrite(expression);
+        }
+        
+        private Expression rewrite(Expression expression) {
+            if (expression instanceof AddExpression add) {
+                return add(rewrite(add.left), rewrite(add.right));
+            } else if (expression instanceof SubtractExpression subtract) {
+                return subtract(rewrite(subtract.left), rewrite(subtract.right));
+            } else if (expression instanceof MultiplyExpression multiply) {
+                return multiply(rewrite(multiply.left), rewrite(multiply.right));
+            } else if (expression instanceof NumberExpression number) {
+                return intern(new Key(NumberExpression.class, number.number, null), expression);
+            } else if (expression instanceof VariableExpression variable) {
+                return intern(new Key(VariableExpression.class, variable.name, null), expression);
+            } else if (expression instanceof SlotExpression variable) {
+                return intern(new Key(SlotExpression.class, variable.slot, null), expression);
+            }
+            // Opaque node, such as a Formula: interned by identity so it still gets an id to order by
+            return intern(new Key(Expression.class, expression, null), expression);
+        }
+        
+        private Expression add(Expression left, Expression right) {
+            if (left instanceof NumberExpression a && right instanceof NumberExpression b) {
+                return constant(a.number + b.number);
+            } else if (isConstant(left, 0)) {
+                return right;
+            } else if (isConstant(right, 0)) {
+                return left;
+            } else if (outOfOrder(left, right)) {
+                return add(right, left);
+            } else if (left instanceof AddExpression inner && inner.right instanceof NumberExpression a 
+                    && right instanceof NumberExpression b) {
+                return add(inner.left, constant(a.number + b.number));
+            }
+            return intern(new Key(AddExpression.class, left, right), new AddExpression(left, right));
+        }
+        
+        private Expression subtract(Expression left, Expression right) {
+            if (left instanceof NumberExpression a && right instanceof NumberExpression b) {
+                return constant(a.number - b.number);
+            } else if (left == right) {
+                return constant(0);
+            } else if (right instanceof NumberExpression b) {
+                // Two's complement wraps, so x - c == x + (-c) even for Integer.MIN_VALUE
+                return add(left, constant(-b.number));
+            }
+            return intern(new Key(SubtractExpression.class, left, right), new SubtractExpression(left, right));
+        }
+        
+        private Expression multiply(Expression left, Expression right) {
+            if (left instanceof NumberExpression a && right instanceof NumberExpression b) {
+                return constant(a.number * b.number);
+            } else if (isConstant(left, 0) || isConstant(right, 0)) {
+                return constant(0);
+            } else if (isConstant(left, 1)) {
+                return right;
+            } else if (isConstant(right, 1)) {
+                return left;
+            } else if (outOfOrder(left, right)) {
+                return multiply(right, left);
+            } else if (left instanceof MultiplyExpression inner && inner.right instanceof NumberExpression a 
+                    && right instanceof NumberExpression b) {
+                return multiply(inner.left, constant(a.number * b.number));
+            }
+            return intern(new Key(MultiplyExpression.class, left, right), new MultiplyExpression(left, right));
+        }
+        
+        private boolean outOfOrder(Expression left, Expression right) {
+            if (left instanceof NumberExpression || right instanceof NumberExpression) {
+                return left instanceof NumberExpression;
+            }
+            return ids.get(left) > ids.get(right);
+        }
+        
+        private Expression constant(int value) {
+            return intern(new Key(NumberExpression.class, value, null), new NumberExpression(value));
+        }
+        
+        private Expression intern(Key key, Expression candidate) {
+            Expression existing = interned.putIfAbsent(key, candidate);
+            if (existing != null) {
+                return existing;
+            }
+            ids.put(candidate, ids.size());
+            return candidate;
+        }
+        
+        private static boolean isConstant(Expression expression, int value) {
+            return expression instanceof NumberExpression number && number.number == value;
+        }
+    }
+    
+    // Optimized DAG flattened into instructions in dependency order. Each instruction
+    // computes one distinct subexpression into a register, so shared subtrees are
+    // evaluated once per interpret() call instead of once per occurrence.
+    private static final class Formula implements Expression {
+        private static final int CONSTANT = 0;
+        private static final int NAME = 1;
+        private static final int SLOT = 2;
+        private static final int ADD = 3;
+        private static final int SUBTRACT = 4;
+        private static final int MULTIPLY = 5;
+        
+        private final Expression root;
+        private final int[] opcodes;
+        private final int[] first;
+        private final int[] second;
+        private final String[] names;
+        
+        public Formula(Expression root) {
+            this.root = root;
+            List<Expression> order = new ArrayList<>();
+            Map<Expression, Integer> registers = new IdentityHashMap<>();
+            linearize(root, registers, order);
+            int size = order.size();
+            this.opcodes = new int[size];
+            this.first = new int[size];
+            this.second = new int[size];
+            this.names = new String[size];
+            for (int i = 0; i < size; i++) {
+                Expression node = order.get(i);
+                if (node instanceof NumberExpression number) {
+                    opcodes[i] = CONSTANT;
+                    first[i] = number.number;
+                } else if (node instanceof VariableExpression variable) {
+                    opcodes[i] = NAME;
+                    names[i] = variable.name;
+                } else if (node instanceof SlotExpression variable) {
+                    opcodes[i] = SLOT;
+                    first[i] = variable.slot;
+                } else if (node instanceof AddExpression add) {
+                    opcodes[i] = ADD;
+                    first[i] = registers.get(add.left);
+                    second[i] = registers.get(add.right);
+                } else if (node instanceof SubtractExpression subtract) {
+                    opcodes[i] = SUBTRACT;
+                    first[i] = registers.get(subtract.left);
+                    second[i] = registers.get(subtract.right);
+                } else {
+                    MultiplyExpression multiply = (MultiplyExpression) node;
+                    opcodes[i] = MULTIPLY;
+                    first[i] = registers.get(multiply.left);
+                    second[i] = registers.get(multiply.right);
+                }
+            }
+        }
+        
+        private static void linearize(Expression node, Map<Expression, Integer> registers, List<Expression> order) {
+            if (registers.containsKey(node)) {
+                return;
+            }
+            if (node instanceof AddExpression add) {
+                linearize(add.left, registers, order);
+                linearize(add.right, registers, order);
+            } else if (node instanceof SubtractExpression subtract) {
+                linearize(subtract.left, registers, order);
+                linearize(subtract.right, registers, order);
+            } else if (node instanceof MultiplyExpression multiply) {
+                linearize(multiply.left, registers, order);
+                linearize(multiply.right, registers, order);
+            } else if (!(node instanceof NumberExpression || node instanceof VariableExpression 
+                    || node instanceof SlotExpression)) {
+                throw new IllegalArgumentException("Cannot flatten " + node.getClass().getSimpleName());
+            }
+            registers.put(node, order.size());
+            order.add(node);
+        }
+        
+        @Override
+        public int interpret(Context context) {
+            int[] registers = context.registers(opcodes.length);
+            for (int i = 0; i < opcodes.length; i++) {
+                registers[i] = switch (opcodes[i]) {
+                    case CONSTANT -> first[i];
+                    case NAME -> context.getVariable(names[i]);
+                    case SLOT -> context.getSlot(first[i]);
+                    case ADD -> registers[first[i]] + registers[second[i]];
+                    case SUBTRACT -> registers[first[i]] - registers[second[i]];
+                    default -> registers[first[i]] * registers[second[i]];
+                };
+            }
+            return registers[opcodes.length - 1];
+        }
+        
+        public Expression root() {
+            return root;
+        }
+        
+        public int instructions() {
+            return opcodes.length;
+        }
+    }
+    
+    /*
+     * Bounded LRU of parsed, slot-resolved and optimized formulas keyed by
+     * source text. Parsing runs outside the lock. The first thread to miss on a
+     * text registers a future for it, and concurrent misses on the same text
+     * wait for that future, so every text is built once and shared.
+     */
+    private static final class FormulaCache {
+        private final SlotTable slots;
+        private final LinkedHashMap<String, Formula> formulas;
+        private final Map<String, CompletableFuture<Formula>> building = new HashMap<>();
+        private long hits;
+        private long misses;
+        
+        public FormulaCache(SlotTable slots, int capacity) {
+            this.slots = slots;
+            this.formulas = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Formula> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+        
+        public Formula get(String source) {
+            CompletableFuture<Formula> pending;
+            synchronized (this) {
+                Formula cached = formulas.get(source);
+                if (cached != null) {
+                    hits++;
+                    return cached;
+                }
+                pending = building.get(source);
+                if (pending == null) {
+                    misses++;
+                    building.put(source, new CompletableFuture<>());
+                } else {
+                    hits++;
+                }
+            }
+            return pending == null ? build(source) : await(pending);
+        }
+        
+        private Formula build(String source) {
+            try {
+                Expression parsed = ExpressionParser.parse(source);
+                Formula formula = new Formula(ExpressionOptimizer.optimize(slots.resolve(parsed)));
+                CompletableFuture<Formula> pending;
+                synchronized (this) {
+                    formulas.put(source, formula);
+                    pending = building.remove(source);
+                }
+                pending.complete(formula);
+                return formula;
+            } catch (RuntimeException | Error e) {
+                CompletableFuture<Formula> pending;
+                synchronized (this) {
+                    pending = building.remove(source);
+                }
+                pending.completeExceptionally(e);
+                throw e;
+            }
+        }
+        
+        // Rethrows the builder's failure, e.g. a parse error, as the builder saw it
+        private static Formula await(CompletableFuture<Formula> pending) {
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+        
+        public SlotTable slots() {
+            return slots;
+        }
+        
+        public synchronized long hits() {
+            return hits;
+        }
+        
+        public synchronized long misses() {
+            return misses;
+        }
+        
+        public synchronized int size() {
+            return formulas.size();
+        }
+    }
+    
+    // Compiled form of an expression tree
+    private interface CompiledExpression {
+        int evaluate(Context context);
+    }
+    
+    // Emits an expression tree as straight-line bytecode in a hidden class, so hot
+    // expressions run as ordinary JIT-compiled methods without virtual dispatch.
+    // Large trees are cut into static helper methods of at most METHOD_BUDGET nodes,
+    // keeping each method under HotSpot's 8,000-byte limit for JIT compilation.
+    private static final class ExpressionCompiler {
+        private static final int METHOD_BUDGET = 512;
+        private static final ClassDesc CD_GENERATED = ClassDesc.of(InterpreterPattern.class.getName() + "$Compiled");
+        private static final ClassDesc CD_CONTEXT = Context.class.describeConstable().orElseThrow();
+        private static final ClassDesc CD_COMPILED = CompiledExpression.class.describeConstable().orElseThrow();
+        private static final MethodTypeDesc MTD_EVALUATE = MethodTypeDesc.of(ConstantDescs.CD_int, CD_CONTEXT);
+        private static final MethodTypeDesc MTD_GET_VARIABLE = 
+            MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_String);
+        private static final MethodTypeDesc MTD_GET_SLOT = 
+            MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int);
+        
+        private ExpressionCompiler() {
+        }
+        
+        public static CompiledExpression compile(Expression expression) {
+            Map<Expression, String> helpers = new IdentityHashMap<>();
+            plan(expression, helpers, new int[1]);
+            byte[] bytes = ClassFile.of().build(CD_GENERATED, clazz -> {
+                clazz.withFlags(ClassFile.ACC_FINAL)
+                    .withSuperclass(ConstantDescs.CD_Object)
+                    .withInterfaceSymbols(CD_COMPILED)
+                    .withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_PUBLIC, 
+                        code -> code.aload(0)
+                            .invokespecial(ConstantDescs.CD_Object, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                            .return_())
+                    .withMethodBody("evaluate", MTD_EVALUATE, ClassFile.ACC_PUBLIC, 
+                        code -> emit(code, expression, 1, expression, helpers).ireturn());
+                helpers.forEach((root, name) -> clazz.withMethodBody(name, MTD_EVALUATE, 
+                        ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, 
+                        code -> emit(code, root, 0, root, helpers).ireturn()));
+            });
+            try {
+                MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClass(bytes, true);
+                return (CompiledExpression) hidden.findConstructor(hidden.lookupClass(), 
+                        MethodType.methodType(void.class)).invoke();
+            } catch (Throwable t) {
+                throw new IllegalStateException("Cannot define compiled expression", t);
+            }
+        }
+        
+        // Returns the number of nodes the expression contributes to its enclosing
+        // method, moving the larger operand into a helper whenever the budget is hit.
+        // Optimized trees share subexpressions, so a node already moved into a helper
+        // is reached again as a single call and keeps the name it was given first.
+        private static int plan(Expression expression, Map<Expression, String> helpers, int[] helperCount) {
+            if (helpers.containsKey(expression)) {
+                return 1;
+            } else if (expression instanceof AddExpression add) {
+                return planBinary(add.left, add.right, helpers, helperCount);
+            } else if (expression instanceof SubtractExpression subtract) {
+                return planBinary(subtract.left, subtract.right, helpers, helperCount);
+            } else if (expression instanceof MultiplyExpression multiply) {
+                return planBinary(multiply.left, multiply.right, helpers, helperCount);
+            } else if (expression instanceof NumberExpression || expression instanceof VariableExpression 
+                    || expression instanceof SlotExpression) {
+                return 1;
+            }
+            throw new IllegalArgumentException("Cannot compile " + expression.getClass().getSimpleName());
+        }
+        
+        private static int planBinary(Expression left, Expression right, Map<Expression, String> helpers, 
+                                      int[] helperCount) {
+            int leftNodes = plan(left, helpers, helperCount);
+            int rightNodes = plan(right, helpers, helperCount);
+            while (leftNodes + rightNodes >= METHOD_BUDGET) {
+                if (leftNodes >= rightNodes) {
+                    extract(left, helpers, helperCount);
+                    leftNodes = 1;
+                } else {
+                    extract(right, helpers, helperCount);
+                    rightNodes = 1;
+                }
+            }
+            return leftNodes + rightNodes + 1;
+        }
+        
+        private static void extract(Expression expression, Map<Expression, String> helpers, int[] helperCount) {
+            if (helpers.putIfAbsent(expression, "part" + helperCount[0]) == null) {
+                helperCount[0]++;
+            }
+        }
+        
+        private static CodeBuilder emit(CodeBuilder code, Expression expression, int contextSlot, 
+                                        Expression methodRoot, Map<Expression, String> helpers) {
+            String helper = helpers.get(expression);
+            if (helper != null && expression != methodRoot) {
+                return code.aload(contextSlot).invokestatic(CD_GENERATED, helper, MTD_EVALUATE);
+            }
+            if (expression instanceof NumberExpression number) {
+                return code.loadConstant(number.number);
+            } else if (expression instanceof VariableExpression variable) {
+                return code.aload(contextSlot)
+                    .loadConstant(variable.name)
+                    .invokevirtual(CD_CONTEXT, "getVariable", MTD_GET_VARIABLE);
+            } else if (expression instanceof SlotExpression variable) {
+                return code.aload(contextSlot)
+                    .loadConstant(variable.slot)
+                    .invokevirtual(CD_CONTEXT, "getSlot", MTD_GET_SLOT);
+            } else if (expression instanceof AddExpression add) {
+                emit(code, add.left, contextSlot, methodRoot, helpers);
+                return emit(code, add.right, contextSlot, methodRoot, helpers).iadd();
+            } else if (expression instanceof SubtractExpression subtract) {
+                emit(code, subtract.left, contextSlot, methodRoot, helpers);
+                return emit(code, subtract.right, contextSlot, methodRoot, helpers).isub();
+            }
+            MultiplyExpression multiply = (MultiplyExpression) expression;
+            emit(code, multiply.left, contextSlot, methodRoot, helpers);
+            return emit(code, multiply.right, contextSlot, methodRoot, helpers).imul();
+        }
+    }
+    
+    // Columnar batch mode: every node runs once per block of rows as a tight loop over
+    // int arrays, instead of once per row as a virtual call. Blocks are spread over the
+    // common pool, and the arithmetic is vectorized when the module is present.
+    private static final class BatchEvaluator {
+        private static final int BLOCK = 2_048;
+        private static final int MIN_BLOCKS_PER_TASK = 8;
+        private static final int ADD = 0;
+        private static final int SUBTRACT = 1;
+        private static final int MULTIPLY = 2;
+        
+        private final boolean vectorized;
+        
+        public BatchEvaluator(boolean preferVector) {
+            this.vectorized = preferVector && VectorSupport.isAvailable();
+        }
+        
+        public boolean isVectorized() {
+            return vectorized;
+        }
+        
+        // One column per variable name; variables without a column read as zero
+        public int[] evaluate(Expression expression, Map<String, int[]> columns, int rows) {
+            for (Map.Entry<String, int[]> column : columns.entrySet()) {
+                if (column.getValue().length < rows) {
+                    throw new IllegalArgumentException("Column " + column.getKey() + " has fewer than " 
+                            + rows + " rows");
+                }
+            }
+            Expression root = expression instanceof Formula formula ? formula.root() : expression;
+            Map<Expression, Integer> uses = new IdentityHashMap<>();
+            countUses(root, uses);
+            
+            int[] result = new int[rows];
+            int blocks = (rows + BLOCK - 1) / BLOCK;
+            int tasks = Math.max(1, Math.min(blocks / MIN_BLOCKS_PER_TASK, 
+                    ForkJoinPool.getCommonPoolParallelism() * 4));
+            int blocksPerTask = (blocks + tasks - 1) / tasks;
+            IntStream.range(0, tasks).parallel().forEach(task -> {
+                BlockEvaluation evaluation = new BlockEvaluation(columns, uses);
+                for (int block = task * blocksPerTask, end = Math.min(blocks, block + blocksPerTask); 
+                        block < end; block++) {
+                    int from = block * BLOCK;
+                    int length = Math.min(BLOCK, rows - from);
+                    Column value = evaluation.evaluate(root, from, length);
+                    System.arraycopy(value.values(), value.offset(), result, from, length);
+                    evaluation.release(value);
+                    evaluation.endBlock();
+                }
+            });
+            return result;
+        }
+        
+        // Nodes reached more than once (shared subtrees of an optimized Formula) are kept
+        // for the whole block so they are computed once
+        private static void countUses(Expression node, Map<Expression, Integer> uses) {
+            if (uses.merge(node, 1, Integer::sum) > 1) {
+                return;
+            }
+            if (node instanceof AddExpression add) {
+                countUses(add.left, uses);
+                countUses(add.right, uses);
+            } else if (node instanceof SubtractExpression subtract) {
+                countUses(subtract.left, uses);
+                countUses(subtract.right, uses);
+            } else if (node instanceof MultiplyExpression multiply) {
+                countUses(multiply.left, uses);
+                countUses(multiply.right, uses);
+            }
+        }
+        
+        // A block-sized slice of values: either a window onto an input column or a
+        // scratch buffer that goes back to the pool once its consumer is done with it
+        private record Column(int[] values, int offset, boolean scratch) {
+        }
+        
+        // Per-task state: scratch buffers are recycled across the task's blocks
+        private final class BlockEvaluation {
+            private final Map<String, int[]> columns;
+            private final Map<Expression, Integer> uses;
+            private final Map<Expression, Column> shared = new IdentityHashMap<>();
+            private final List<int[]> pinned = new ArrayList<>();
+            private final ArrayDeque<int[]> free = new ArrayDeque<>();
+            
+            BlockEvaluation(Map<String, int[]> columns, Map<Expression, Integer> uses) {
+                this.columns = columns;
+                this.uses = uses;
+            }
+            
+            Column evaluate(Expression node, int from, int length) {
+                Column cached = shared.get(node);
+                if (cached != null) {
+                    return cached;
+                }
+                Column value;
+                if (node instanceof NumberExpression number) {
+                    int[] buffer = take();
+                    Arrays.fill(buffer, 0, length, number.number);
+                    value = new Column(buffer, 0, true);
+                } else if (node instanceof VariableExpression variable) {
+                    value = input(variable.name, from, length);
+                } else if (node instanceof SlotExpression variable) {
+                    value = input(variable.name, from, length);
+                } else if (node instanceof AddExpression add) {
+                    value = combine(ADD, add.left, add.right, from, length);
+                } else if (node instanceof SubtractExpression subtract) {
+                    value = combine(SUBTRACT, subtract.left, subtract.right, from, length);
+                } else if (node instanceof MultiplyExpression multiply) {
+                    value = combine(MULTIPLY, multiply.left, multiply.right, from, length);
+                } else {
+                    throw new IllegalArgumentException("Cannot batch " + node.getClass().getSimpleName());
+                }
+                if (uses.get(node) > 1) {
+                    // Pinned until endBlock(), so consumers must not recycle it
+                    if (value.scratch()) {
+                        pinned.add(value.values());
+                    }
+                    value = new Column(value.values(), value.offset(), false);
+                    shared.put(node, value);
+                }
+                return value;
+            }
+            
+            private Column input(String name, int from, int length) {
+                int[] column = columns.get(name);
+                if (column == null) {
+                    int[] buffer = take();
+                    Arrays.fill(buffer, 0, length, 0);
+                    return new Column(buffer, 0, true);
+                }
+                return new Column(column, from, false);
+            }
+            
+            private Column combine(int operator, Expression leftNode, Expression rightNode, int from, int length) {
+                Column left = evaluate(leftNode, from, length);
+                Column right = evaluate(rightNode, from, length);
+                // Element-wise, so a scratch operand can safely be overwritten in place
+                int[] out = left.scratch() ? left.values() : right.scratch() ? right.values() : take();
+                apply(operator, left, right, out, length);
+                if (right.scratch() && right.values() != out) {
+                    free.push(right.values());
+                }
+                return new Column(out, 0, true);
+            }
+            
+            private void apply(int operator, Column left, Column right, int[] out, int length) {
+                int[] a = left.values();
+                int[] b = right.values();
+                int aOffset = left.offset();
+                int bOffset = right.offset();
+                if (vectorized) {
+                    switch (operator) {
+                        case ADD -> VectorColumnKernel.add(a, aOffset, b, bOffset, out, length);
+                        case SUBTRACT -> VectorColumnKernel.subtract(a, aOffset, b, bOffset, out, length);
+                        default -> VectorColumnKernel.multiply(a, aOffset, b, bOffset, out, length);
+                    }
+                    return;
+                }
+                switch (operator) {
+                    case ADD -> {
+                        for (int i = 0; i < length; i++) {
+                            out[i] = a[aOffset + i] + b[bOffset + i];
+                        }
+                    }
+                    case SUBTRACT -> {
+                        for (int i = 0; i < length; i++) {
+                            out[i] = a[aOffset + i] - b[bOffset + i];
+                        }
+                    }
+                    default -> {
+                        for (int i = 0; i < length; i++) {
+                            out[i] = a[aOffset + i] * b[bOffset + i];
+                        }
+                    }
+                }
+            }
+            
+            private int[] take() {
+                int[] buffer = free.poll();
+                return buffer != null ? buffer : new int[BLOCK];
+            }
+            
+            // Hands the root's buffer back once its values were copied into the result
+            void release(Column value) {
+                if (value.scratch()) {
+                    free.push(value.values());
+                }
+            }
+            
+            void endBlock() {
+                pinned.forEach(free::push);
+                pinned.clear();
+                shared.clear();
+            }
+        }
+    }
+    
+    // Only loaded once VectorSupport has confirmed jdk.incubator.vector is resolved.
+    // One loop per operator keeps the lane operation a compile-time constant.
+    private static final class VectorColumnKernel {
+        private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+        
+        static void add(int[] a, int aOffset, int[] b, int bOffset, int[] out, int length) {
+            int bound = SPECIES.loopBound(length);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length()) {
+                IntVector.fromArray(SPECIES, a, aOffset + i)
+                    .add(IntVector.fromArray(SPECIES, b, bOffset + i))
+                    .intoArray(out, i);
+            }
+            for (; i < length; i++) {
+                out[i] = a[aOffset + i] + b[bOffset + i];
+            }
+        }
+        
+        static void subtract(int[] a, int aOffset, int[] b, int bOffset, int[] out, int length) {
+            int bound = SPECIES.loopBound(length);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length()) {
+                IntVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(IntVector.fromArray(SPECIES, b, bOffset + i))
+                    .intoArray(out, i);
+            }
+            for (; i < length; i++) {
+                out[i] = a[aOffset + i] - b[bOffset + i];
+            }
+        }
+        
+        static void multiply(int[] a, int aOffset, int[] b, int bOffset, int[] out, int length) {
+            int bound = SPECIES.loopBound(length);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length()) {
+                IntVector.fromArray(SPECIES, a, aOffset + i)
+                    .mul(IntVector.fromArray(SPECIES, b, bOffset + i))
+                    .intoArray(out, i);
+            }
+            for (; i < length; i++) {
+                out[i] = a[aOffset + i] * b[bOffset + i];
+            }
+        }
+    }
+    
+    // Callback for a watched expression whose value changed
+    private interface ValueListener {
+        void changed(int oldValue, int newValue);
+    }
+    
+    // Reactive mode: caches the value of every subexpression and, when a variable
+    // changes, recomputes only the nodes downstream of it. Dirty nodes are processed
+    // lowest height first, so each is recomputed at most once per change, and
+    // propagation stops wherever a recomputed value turns out unchanged. Listeners
+    // run after propagation completes, so they never observe half-updated values.
+    private static final class ReactiveContext {
+        private static final int LEAF = 0;
+        private static final int ADD = 1;
+        private static final int SUBTRACT = 2;
+        private static final int MULTIPLY = 3;
+        
+        private static final class Node {
+            final int operator;
+            final String name;
+            final Node left;
+            final Node right;
+            final int height;
+            final List<Node> parents = new ArrayList<>(2);
+            final List<Cell> cells = new ArrayList<>(0);
+            int value;
+            int previous;
+            boolean queued;
+            
+            Node(int operator, String name, Node left, Node right, int value) {
+                this.operator = operator;
+                this.name = name;
+                this.left = left;
+                this.right = right;
+                this.height = left == null ? 0 : 1 + Math.max(left.height, right.height);
+                this.value = value;
+            }
+            
+            int compute() {
+                return switch (operator) {
+                    case ADD -> left.value + right.value;
+                    case SUBTRACT -> left.value - right.value;
+                    case MULTIPLY -> left.value * right.value;
+                    default -> value;
+                };
+            }
+        }
+        
+        // Handle to a watched expression
+        private static final class Cell {
+            private final Node node;
+            private final Set<String> dependencies;
+            private final ValueListener listener;
+            
+            Cell(Node node, Set<String> dependencies, ValueListener listener) {
+                this.node = node;
+                this.dependencies = dependencies;
+                this.listener = listener;
+            }
+            
+            public int value() {
+                return node.value;
+            }
+            
+            public Set<String> dependencies() {
+                return dependencies;
+            }
+        }
+        
+        private final Map<String, Node> variables = new HashMap<>();
+        private final Map<Expression, Node> nodes = new IdentityHashMap<>();
+        private final List<ArrayDeque<Node>> levels = new ArrayList<>();
+        private final List<Node> changed = new ArrayList<>();
+        private int pending;
+        private long recomputed;
+        
+        public Cell watch(Expression expression, ValueListener listener) {
+            Expression root = expression instanceof Formula formula ? formula.root() : expression;
+            Set<String> dependencies = new TreeSet<>();
+            Node node = nodeFor(root, dependencies);
+            Cell cell = new Cell(node, Collections.unmodifiableSet(dependencies), listener);
+            node.cells.add(cell);
+            return cell;
+        }
+        
+        public void setVariable(String name, int value) {
+            Node leaf = variable(name);
+            if (leaf.value == value) {
+                return;
+            }
+            leaf.previous = leaf.value;
+            leaf.value = value;
+            changed.add(leaf);
+            schedule(leaf);
+            propagate();
+            notifyChanged();
+        }
+        
+        public int getVariable(String name) {
+            Node leaf = variables.get(name);
+            return leaf == null ? 0 : leaf.value;
+        }
+        
+        public long recomputed() {
+            return recomputed;
+        }
+        
+        public int size() {
+            return nodes.size() + variables.size();
+        }
+        
+        // Builds the graph bottom-up, sharing one leaf per variable name and one node per
+        // expression instance, so DAGs from the optimizer keep their sharing
+        private Node nodeFor(Expression expression, Set<String> dependencies) {
+            if (expression instanceof VariableExpression variable) {
+                dependencies.add(variable.name);
+                return variable(variable.name);
+            } else if (expression instanceof SlotExpression variable) {
+                dependencies.add(variable.name);
+                return variable(variable.name);
+            }
+            Node existing = nodes.get(expression);
+            if (existing != null) {
+                collectDependencies(existing, dependencies, Collections.newSetFromMap(new IdentityHashMap<>()));
+                return existing;
+            }
+            Node node;
+            if (expression instanceof NumberExpression number) {
+                node = new Node(LEAF, null, null, null, number.number);
+            } else if (expression instanceof AddExpression add) {
+                node = link(ADD, nodeFor(add.left, dependencies), nodeFor(add.right, dependencies));
+            } else if (expression instanceof SubtractExpression subtract) {
+                node = link(SUBTRACT, nodeFor(subtract.left, dependencies), nodeFor(subtract.right, dependencies));
+            } else if (expression instanceof MultiplyExpression multiply) {
+                node = link(MULTIPLY, nodeFor(multiply.left, dependencies), nodeFor(multiply.right, dependencies));
+            } else {
+                throw new IllegalArgumentException("Cannot watch " + expression.getClass().getSimpleName());
+            }
+            nodes.put(expression, node);
+            return node;
+        }
+        
+        private Node link(int operator, Node left, Node right) {
+            Node node = new Node(operator, null, left, right, 0);
+            node.value = node.compute();
+            left.parents.add(node);
+            if (right != left) {
+                right.parents.add(node);
+            }
+            return node;
+        }
+        
+        private static void collectDependencies(Node node, Set<String> dependencies, Set<Node> visited) {
+            if (!visited.add(node)) {
+                return;
+            }
+            if (node.name != null) {
+                dependencies.add(node.name);
+            } else if (node.operator != LEAF) {
+                collectDependencies(node.left, dependencies, visited);
+                collectDependencies(node.right, dependencies, visited);
+            }
+        }
+        
+        private Node variable(String name) {
+            return variables.computeIfAbsent(name, key -> new Node(LEAF, key, null, null, 0));
+        }
+        
+        private void schedule(Node node) {
+            for (Node parent : node.parents) {
+                if (!parent.queued) {
+                    parent.queued = true;
+                    while (levels.size() <= parent.height) {
+                        levels.add(new ArrayDeque<>());
+                    }
+                    levels.get(parent.height).add(parent);
+                    pending++;
+                }
+            }
+        }
+        
+        private void propagate() {
+            for (int level = 1; pending > 0; level++) {
+                ArrayDeque<Node> queue = levels.get(level);
+                Node node;
+                while ((node = queue.poll()) != null) {
+                    pending--;
+                    node.queued = false;
+                    recomputed++;
+                    int value = node.compute();
+                    if (value != node.value) {
+                        node.previous = node.value;
+                        node.value = value;
+                        changed.add(node);
+                        schedule(node);
+                    }
+                }
+            }
+        }
+        
+        // Value pair captured before any listener runs
+        private record Change(Node node, int oldValue, int newValue) {
+        }
+        
+        private void notifyChanged() {
+            // Snapshotted first: a listener may itself call setVariable, which
+            // rewrites previous and value on the nodes still to be notified
+            List<Change> notified = new ArrayList<>(changed.size());
+            for (Node node : changed) {
+                if (!node.cells.isEmpty()) {
+                    notified.add(new Change(node, node.previous, node.value));
+                }
+            }
+            changed.clear();
+            for (Change change : notified) {
+                for (Cell cell : change.node().cells) {
+                    if (cell.listener != null) {
+                        cell.listener.changed(change.oldValue(), change.newValue());
+                    }
+                }
+            }
+        }
+    }
+    
+    // Random balanced tree over x, y, z and small constants
+    private static Expression randomExpression(Random random, int depth) {
+        if (depth == 0) {
+            return switch (random.nextInt(4)) {
+                case 0 -> new VariableExpression("x");
+                case 1 -> new VariableExpression("y");
+                case 2 -> new VariableExpression("z");
+                default -> new NumberExpression(random.nextInt(100));
+            };
+        }
+        Expression left = randomExpression(random, depth - 1);
+        Expression right = randomExpression(random, depth - 1);
+        return random.nextBoolean() ? new AddExpression(left, right) : new SubtractExpression(left, right);
+    }
+    
+    // Sums of products over x, y, z and digits that reuse a few subterms, like real formulas
+    private static String randomFormula(Random random) {
+        String[] terms = new String[4];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = randomTerm(random, 2);
+        }
+        StringBuilder formula = new StringBuilder(terms[random.nextInt(terms.length)]);
+        for (int i = 0; i < 8; i++) {
+            formula.append(random.nextBoolean() ? " + " : " - ").append(terms[random.nextInt(terms.length)]);
+        }
+        return formula.toString();
+    }
+    
+    private static String randomTerm(Random random, int depth) {
+        if (depth == 0) {
+            return random.nextInt(3) == 0 
+                ? String.valueOf(random.nextInt(10)) : String.valueOf("xyz".charAt(random.nextInt(3)));
+        }
+        String operator = switch (random.nextInt(3)) {
+            case 0 -> " + ";
+            case 1 -> " - ";
+            default -> " * ";
+        };
+        return "(" + randomTerm(random, depth - 1) + operator + randomTerm(random, depth - 1) + ")";
+    }
+    
+    private static int countNodes(Expression expression) {
+        if (expression instanceof AddExpression add) {
+            return 1 + countNodes(add.left) + countNodes(add.right);
+        } else if (expression instanceof SubtractExpression subtract) {
+            return 1 + countNodes(subtract.left) + countNodes(subtract.right);
+        } else if (expression instanceof MultiplyExpression multiply) {
+            return 1 + countNodes(multiply.left) + countNodes(multiply.right);
+        }
+        return 1;
+    }
+    
+    private record Timing(long nanos, long checksum) {
+    }
+    
+    // Best of ten runs of either the tree walk or, when given, the compiled form. x, y and
+    // z are rebound before every evaluation, as a caller reusing one frame would do; with
+    // an unchanged frame, C2 may hoist the compiled slot reads and arithmetic out of the loop.
+    private static Timing time(Context context, Expression tree, CompiledExpression compiled, int evaluations) {
+        int[] slots = {context.slots().slotOf("x"), context.slots().slotOf("y"), context.slots().slotOf("z")};
+        int[] original = new int[slots.length];
+        for (int s = 0; s < slots.length; s++) {
+            original[s] = context.getSlot(slots[s]);
+        }
+        long best = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < 10; round++) {
+            checksum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < evaluations; i++) {
+                context.setSlot(slots[0], i);
+                context.setSlot(slots[1], i * 3);
+                context.setSlot(slots[2], i ^ 5);
+                checksum += compiled == null ? tree.interpret(context) : compiled.evaluate(context);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        for (int s = 0; s < slots.length; s++) {
+            context.setSlot(slots[s], original[s]);
+        }
+        return new Timing(best, checksum);
+    }
+    
     @Override
     public void demonstrate() {
         Logger.logPattern("Interpreter Pattern");
@@ -120,5 +1350,254 @@ public final class InterpreterPattern implements Demonstrable {
         Logger.log("x + y = " + addExpr.interpret(context));
         Logger.log("x - y = " + subExpr.interpret(context));
         Logger.log("(x + y) + 20 = " + complexExpr.interpret(context));
+        
+        Logger.logSection("Compiled Expressions");
+        CompiledExpression compiledComplex = ExpressionCompiler.compile(complexExpr);
+        Logger.log("compiled (x + y) + 20 = " + compiledComplex.evaluate(context));
+        
+        Logger.logSection("Tree Walk vs Compiled (10,000,000 nodes per run)");
+        context.setVariable("z", 3);
+        Random random = new Random(42);
+        for (int depth : new int[] {3, 6, 9}) {
+            Expression deep = randomExpression(random, depth);
+            CompiledExpression compiled = ExpressionCompiler.compile(deep);
+            int nodes = (2 << depth) - 1;
+            int evaluations = 10_000_000 / nodes;
+            Timing walked = time(context, deep, null, evaluations);
+            Timing ran = time(context, deep, compiled, evaluations);
+            Logger.log(String.format("%,5d nodes x %,9d: tree walk %7.1f ns/eval, compiled %7.1f ns/eval (%.1fx), "
+                    + "match: %b", nodes, evaluations, (double) walked.nanos() / evaluations, 
+                    (double) ran.nanos() / evaluations, (double) walked.nanos() / ran.nanos(), 
+                    walked.checksum() == ran.checksum()));
+        }
+        
+        Logger.logSection("Slot-Resolved Frames (127 nodes, names vs slots)");
+        Expression named = randomExpression(new Random(7), 6);
+        Expression slotted = context.slots().resolve(named);
+        int evaluations = 10_000_000 / 127;
+        Timing[] timings = {
+            time(context, named, null, evaluations),
+            time(context, slotted, null, evaluations),
+            time(context, named, ExpressionCompiler.compile(named), evaluations),
+            time(context, slotted, ExpressionCompiler.compile(slotted), evaluations)
+        };
+        Logger.log(String.format("Tree walk: names %6.1f ns/eval, slots %6.1f ns/eval (%.1fx)", 
+                (double) timings[0].nanos() / evaluations, (double) timings[1].nanos() / evaluations, 
+                (double) timings[0].nanos() / timings[1].nanos()));
+        Logger.log(String.format("Compiled:  names %6.1f ns/eval, slots %6.1f ns/eval (%.1fx)", 
+                (double) timings[2].nanos() / evaluations, (double) timings[3].nanos() / evaluations, 
+                (double) timings[2].nanos() / timings[3].nanos()));
+        Logger.log("Results match: " + Arrays.stream(timings).allMatch(
+                timing -> timing.checksum() == timings[0].checksum()));
+        
+        // The same frame is rebound by slot between evaluations, with no hashing or boxing
+        int xSlot = context.slots().slotOf("x");
+        Expression resolvedComplex = context.slots().resolve(complexExpr);
+        for (int x = 1; x <= 3; x++) {
+            context.setSlot(xSlot, x);
+            Logger.log("x = " + x + ": (x + y) + 20 = " + resolvedComplex.interpret(context));
+        }
+        
+        demonstrateFormulas();
+        demonstrateBatch();
+        demonstrateReactive();
+    }
+    
+    private void demonstrateReactive() {
+        Logger.logSection("Reactive Re-evaluation");
+        ReactiveContext reactive = new ReactiveContext();
+        reactive.setVariable("x", 10);
+        reactive.setVariable("y", 5);
+        reactive.setVariable("z", 3);
+        ReactiveContext.Cell watched = reactive.watch(ExpressionParser.parse("(x + y) - 20 * z"), 
+            (oldValue, newValue) -> Logger.log("  (x + y) - 20 * z changed " + oldValue + " -> " + newValue));
+        Logger.log("(x + y) - 20 * z = " + watched.value() + ", depends on " + watched.dependencies());
+        long before = reactive.recomputed();
+        reactive.setVariable("x", 11);
+        Logger.log("x = 11 recomputed " + (reactive.recomputed() - before) + " of 3 operators (20 * z stayed cached)");
+        before = reactive.recomputed();
+        reactive.setVariable("w", 1);
+        Logger.log("w = 1 recomputed " + (reactive.recomputed() - before) + " nodes");
+        
+        int formulas = 5_000;
+        int variables = 1_000;
+        Logger.logSection(String.format("Formula Graph (%,d formulas over %,d variables)", formulas, variables));
+        Random random = new Random(3);
+        Context context = new Context();
+        ReactiveContext graph = new ReactiveContext();
+        Expression[] trees = new Expression[formulas];
+        // Listeners keep a running total of all formulas, the way a dashboard would
+        long[] total = new long[1];
+        int[] notifications = new int[1];
+        for (int i = 0; i < formulas; i++) {
+            StringBuilder source = new StringBuilder();
+            for (int term = 0; term < 4; term++) {
+                source.append(term == 0 ? "" : random.nextBoolean() ? " + " : " - ")
+                    .append("(v").append(random.nextInt(variables)).append(" - v").append(random.nextInt(variables))
+                    .append(") * ").append(1 + random.nextInt(9));
+            }
+            trees[i] = context.slots().resolve(ExpressionParser.parse(source.toString()));
+            total[0] += graph.watch(trees[i], (oldValue, newValue) -> {
+                total[0] += newValue - oldValue;
+                notifications[0]++;
+            }).value();
+        }
+        int updates = 2_000;
+        int[] updatedVariables = random.ints(updates, 0, variables).toArray();
+        int[] updatedValues = random.ints(updates, -100, 100).toArray();
+        
+        // Full recomputation: every formula is re-interpreted after each change
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int update = 0; update < updates; update++) {
+            context.setVariable("v" + updatedVariables[update], updatedValues[update]);
+            for (Expression tree : trees) {
+                checksum += tree.interpret(context);
+            }
+        }
+        long fullNanos = System.nanoTime() - start;
+        
+        long reactiveChecksum = 0;
+        before = graph.recomputed();
+        start = System.nanoTime();
+        for (int update = 0; update < updates; update++) {
+            graph.setVariable("v" + updatedVariables[update], updatedValues[update]);
+            reactiveChecksum += total[0];
+        }
+        long reactiveNanos = System.nanoTime() - start;
+        long recomputed = graph.recomputed() - before;
+        Logger.log(String.format("Full re-evaluation: %,8.1f us per update, %,d nodes each", 
+                fullNanos / 1e3 / updates, graph.size()));
+        Logger.log(String.format("Reactive:           %,8.1f us per update, %.1f nodes recomputed each", 
+                reactiveNanos / 1e3 / updates, (double) recomputed / updates));
+        Logger.log(String.format("%,d listener notifications, results match: %b", 
+                notifications[0], checksum == reactiveChecksum));
+    }
+    
+    private void demonstrateBatch() {
+        int rows = 1_000_000;
+        Logger.logSection("Columnar Batch (" + String.format("%,d", rows) + " rows, 63-node expression)");
+        Random random = new Random(5);
+        Expression expression = randomExpression(random, 5);
+        Map<String, int[]> columns = new HashMap<>();
+        for (String name : new String[] {"x", "y", "z"}) {
+            columns.put(name, random.ints(rows, -1_000, 1_000).toArray());
+        }
+        
+        // Row at a time: rebind the frame and walk the resolved tree per row
+        Context context = new Context();
+        Expression resolved = context.slots().resolve(expression);
+        int[] xs = columns.get("x");
+        int[] ys = columns.get("y");
+        int[] zs = columns.get("z");
+        int xSlot = context.slots().slotOf("x");
+        int ySlot = context.slots().slotOf("y");
+        int zSlot = context.slots().slotOf("z");
+        int[] expected = new int[rows];
+        long rowNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int row = 0; row < rows; row++) {
+                context.setSlot(xSlot, xs[row]);
+                context.setSlot(ySlot, ys[row]);
+                context.setSlot(zSlot, zs[row]);
+                expected[row] = resolved.interpret(context);
+            }
+            rowNanos = Math.min(rowNanos, System.nanoTime() - start);
+        }
+        Logger.log(String.format("Row at a time:     %4d ms", rowNanos / 1_000_000));
+        
+        for (BatchEvaluator evaluator : new BatchEvaluator[] {new BatchEvaluator(false), new BatchEvaluator(true)}) {
+            long best = Long.MAX_VALUE;
+            int[] result = null;
+            for (int round = 0; round < 10; round++) {
+                long start = System.nanoTime();
+                result = evaluator.evaluate(expression, columns, rows);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            Logger.log(String.format("Columnar %-8s %4d ms (%.1fx), %d workers, results match: %b", 
+                    evaluator.isVectorized() ? "vector:" : "scalar:", best / 1_000_000, (double) rowNanos / best, 
+                    ForkJoinPool.getCommonPoolParallelism(), Arrays.equals(expected, result)));
+        }
+        
+        // Shared subtrees of an optimized formula are computed once per block
+        Formula formula = new Formula(ExpressionOptimizer.optimize(expression));
+        long start = System.nanoTime();
+        int[] result = new BatchEvaluator(true).evaluate(formula, columns, rows);
+        Logger.log(String.format("Optimized formula (%d instructions): %d ms cold, results match: %b", 
+                formula.instructions(), (System.nanoTime() - start) / 1_000_000, Arrays.equals(expected, result)));
+    }
+    
+    private void demonstrateFormulas() {
+        Logger.logSection("Parsed and Optimized Formulas");
+        FormulaCache cache = new FormulaCache(new SlotTable(), 4_096);
+        Context context = new Context(cache.slots());
+        context.setVariable("x", 10);
+        context.setVariable("y", 5);
+        context.setVariable("z", 3);
+        for (String source : new String[] {
+                "(x + y) - 20 * z", "(x + 0) * 1 + (y * z + 2 + 3) - y * z", "x * y + 2 * (y * x) - (x - x)"}) {
+            Formula formula = cache.get(source);
+            Logger.log(String.format("%-40s = %4d (%2d tree nodes -> %d instructions)", source, 
+                    formula.interpret(context), countNodes(ExpressionParser.parse(source)), formula.instructions()));
+        }
+        try {
+            cache.get("(x + * 2");
+        } catch (IllegalArgumentException e) {
+            Logger.log("Rejected: " + e.getMessage());
+        }
+        
+        Logger.logSection("Formula Workload (2,000 formulas, 200,000 requests)");
+        Random random = new Random(11);
+        String[] sources = new String[2_000];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = randomFormula(random);
+        }
+        int[] requests = random.ints(200_000, 0, sources.length).toArray();
+        long parsedSum = 0;
+        long start = System.nanoTime();
+        for (int request : requests) {
+            parsedSum += ExpressionParser.parse(sources[request]).interpret(context);
+        }
+        long parseMillis = (System.nanoTime() - start) / 1_000_000;
+        long cachedSum = 0;
+        start = System.nanoTime();
+        for (int request : requests) {
+            cachedSum += cache.get(sources[request]).interpret(context);
+        }
+        long cachedMillis = (System.nanoTime() - start) / 1_000_000;
+        Logger.log(String.format("Parse per request: %,d ms, cached formulas: %,d ms, results match: %b", 
+                parseMillis, cachedMillis, parsedSum == cachedSum));
+        Logger.log(String.format("Cache: %,d hits, %,d misses, %,d entries", 
+                cache.hits(), cache.misses(), cache.size()));
+        
+        Expression[] trees = new Expression[sources.length];
+        Formula[] formulas = new Formula[sources.length];
+        long nodes = 0;
+        long instructions = 0;
+        for (int i = 0; i < sources.length; i++) {
+            trees[i] = cache.slots().resolve(ExpressionParser.parse(sources[i]));
+            formulas[i] = cache.get(sources[i]);
+            nodes += countNodes(trees[i]);
+            instructions += formulas[i].instructions();
+        }
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE};
+        long[] checksums = new long[2];
+        for (int round = 0; round < 20; round++) {
+            for (int variant = 0; variant < 2; variant++) {
+                Expression[] evaluated = variant == 0 ? trees : formulas;
+                long checksum = 0;
+                start = System.nanoTime();
+                for (Expression expression : evaluated) {
+                    checksum += expression.interpret(context);
+                }
+                best[variant] = Math.min(best[variant], System.nanoTime() - start);
+                checksums[variant] = checksum;
+            }
+        }
+        Logger.log(String.format("Average %.1f tree nodes -> %.1f instructions", 
+                (double) nodes / sources.length, (double) instructions / sources.length));
+        Logger.log(String.format("Evaluation: tree %.0f ns, optimized %.0f ns per formula, results match: %b", 
+                (double) best[0] / sources.length, (double) best[1] / sources.length, checksums[0] == checksums[1]));
     }
 }
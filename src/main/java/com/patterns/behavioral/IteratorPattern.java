@@ -2,9 +2,37 @@ package com.patterns.behavioral;
 
 import com.patterns.common.Demonstrable;
 import com.patterns.common.Logger;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Iterator Pattern - Provides a way to access the elements of an aggregate
@@ -16,19 +44,100 @@ public final class IteratorPattern implements Demonstrable {
     private interface Iterator<T> {
         boolean hasNext();
         T next();
+        
+        // Fills dest from the front and returns how many elements were copied; 0 once
+        // exhausted. Iterators over arrays override this with a bulk copy.
+        default int nextBatch(T[] dest) {
+            int count = 0;
+            while (count < dest.length && hasNext()) {
+                dest[count++] = next();
+            }
+            return count;
+        }
+        
+        default void forEachRemaining(Consumer<? super T> action) {
+            while (hasNext()) {
+                action.accept(next());
+            }
+        }
+    }
+    
+    // Primitive-specialized iterator: no boxing per element
+    private interface IntIterator {
+        boolean hasNext();
+        int nextInt();
+        
+        default int nextBatch(int[] dest) {
+            int count = 0;
+            while (count < dest.length && hasNext()) {
+                dest[count++] = nextInt();
+            }
+            return count;
+        }
+        
+        default void forEachRemaining(IntConsumer action) {
+            while (hasNext()) {
+                action.accept(nextInt());
+            }
+        }
     }
     
     // Aggregate interface
     private interface Container<T> {
         Iterator<T> createIterator();
+        
+        // Unsized fallback over createIterator(); aggregates that know their size override it
+        default Spliterator<T> spliterator() {
+            Iterator<T> iterator = createIterator();
+            return Spliterators.spliteratorUnknownSize(new java.util.Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                
+                @Override
+                public T next() {
+                    return iterator.next();
+                }
+            }, Spliterator.ORDERED);
+        }
+        
+        default Stream<T> stream() {
+            return StreamSupport.stream(spliterator(), false);
+        }
+        
+        default Stream<T> parallelStream() {
+            return StreamSupport.stream(spliterator(), true);
+        }
     }
     
-    // Concrete Aggregate
+    // Concrete Aggregate: titles and page counts in parallel arrays, with a
+    // modification count so iterators and spliterators fail fast
     private static final class BookCollection implements Container<String> {
-        private final List<String> books = new ArrayList<>();
+        private String[] titles = new String[16];
+        private int[] pages = new int[16];
+        private int size;
+        private int modCount;
         
         public void addBook(String book) {
-            books.add(book);
+            addBook(book, 0);
+        }
+        
+        public void addBook(String book, int pageCount) {
+            Objects.requireNonNull(book, "book");
+            if (size == titles.length) {
+                int capacity = Math.max(size + 1, size + (size >> 1));
+                titles = Arrays.copyOf(titles, capacity);
+                pages = Arrays.copyOf(pages, capacity);
+            }
+            titles[size] = book;
+            pages[size] = pageCount;
+            size++;
+            modCount++;
+        }
+        
+        public int size() {
+            return size;
         }
         
         @Override
@@ -36,39 +145,840 @@ public final class IteratorPattern implements Demonstrable {
             return new BookIterator();
         }
         
+        public IntIterator createPageIterator() {
+            return new PageIterator();
+        }
+        
+        @Override
+        public Spliterator<String> spliterator() {
+            return new TitleSpliterator(0, -1, 0);
+        }
+        
+        public Spliterator.OfInt pageSpliterator() {
+            return new PageSpliterator(0, -1, 0);
+        }
+        
+        public IntStream pageStream() {
+            return StreamSupport.intStream(pageSpliterator(), false);
+        }
+        
+        public IntStream parallelPageStream() {
+            return StreamSupport.intStream(pageSpliterator(), true);
+        }
+        
+        private void checkForComodification(int expectedModCount) {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+        
         // Concrete Iterator
         private final class BookIterator implements Iterator<String> {
+            private final int expectedModCount = modCount;
             private int index = 0;
             
             @Override
             public boolean hasNext() {
-                return index < books.size();
+                return index < size;
             }
             
             @Override
             public String next() {
-                if (hasNext()) {
-                    return books.get(index++);
+                checkForComodification(expectedModCount);
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return titles[index++];
+            }
+            
+            @Override
+            public int nextBatch(String[] dest) {
+                checkForComodification(expectedModCount);
+                int count = Math.min(dest.length, size - index);
+                System.arraycopy(titles, index, dest, 0, count);
+                index += count;
+                return count;
+            }
+            
+            @Override
+            public void forEachRemaining(Consumer<? super String> action) {
+                Objects.requireNonNull(action);
+                checkForComodification(expectedModCount);
+                String[] array = titles;
+                int end = size;
+                int i = index;
+                for (; i < end && modCount == expectedModCount; i++) {
+                    action.accept(array[i]);
+                }
+                index = i;
+                checkForComodification(expectedModCount);
+            }
+        }
+        
+        private final class PageIterator implements IntIterator {
+            private final int expectedModCount = modCount;
+            private int index = 0;
+            
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+            
+            @Override
+            public int nextInt() {
+                checkForComodification(expectedModCount);
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return pages[index++];
+            }
+            
+            @Override
+            public int nextBatch(int[] dest) {
+                checkForComodification(expectedModCount);
+                int count = Math.min(dest.length, size - index);
+                System.arraycopy(pages, index, dest, 0, count);
+                index += count;
+                return count;
+            }
+            
+            @Override
+            public void forEachRemaining(IntConsumer action) {
+                Objects.requireNonNull(action);
+                checkForComodification(expectedModCount);
+                int[] array = pages;
+                int end = size;
+                int i = index;
+                for (; i < end && modCount == expectedModCount; i++) {
+                    action.accept(array[i]);
+                }
+                index = i;
+                checkForComodification(expectedModCount);
+            }
+        }
+        
+        // Index range over the backing arrays. The fence binds to the collection's size
+        // on first use, and trySplit hands the lower half to the new spliterator.
+        private abstract class RangeSpliterator {
+            protected int index;
+            protected int expectedModCount;
+            private int fence;
+            
+            RangeSpliterator(int origin, int fence, int expectedModCount) {
+                this.index = origin;
+                this.fence = fence;
+                this.expectedModCount = expectedModCount;
+            }
+            
+            protected int fence() {
+                if (fence < 0) {
+                    expectedModCount = modCount;
+                    fence = size;
+                }
+                return fence;
+            }
+            
+            // Returns the start of the lower half and moves this spliterator to the upper half
+            protected int split() {
+                int low = index;
+                int middle = (low + fence()) >>> 1;
+                if (low >= middle) {
+                    return -1;
+                }
+                index = middle;
+                return low;
+            }
+            
+            protected void checkForComodification() {
+                BookCollection.this.checkForComodification(expectedModCount);
+            }
+            
+            public long estimateSize() {
+                return fence() - index;
+            }
+        }
+        
+        private final class TitleSpliterator extends RangeSpliterator implements Spliterator<String> {
+            TitleSpliterator(int origin, int fence, int expectedModCount) {
+                super(origin, fence, expectedModCount);
+            }
+            
+            @Override
+            public boolean tryAdvance(Consumer<? super String> action) {
+                Objects.requireNonNull(action);
+                int i = index;
+                if (i >= fence()) {
+                    return false;
+                }
+                index = i + 1;
+                action.accept(titles[i]);
+                checkForComodification();
+                return true;
+            }
+            
+            @Override
+            public void forEachRemaining(Consumer<? super String> action) {
+                Objects.requireNonNull(action);
+                String[] array = titles;
+                int end = fence();
+                for (int i = index; i < end; i++) {
+                    action.accept(array[i]);
+                }
+                index = end;
+                checkForComodification();
+            }
+            
+            @Override
+            public Spliterator<String> trySplit() {
+                int low = split();
+                return low < 0 ? null : new TitleSpliterator(low, index, expectedModCount);
+            }
+            
+            @Override
+            public int characteristics() {
+                return ORDERED | SIZED | SUBSIZED | NONNULL;
+            }
+        }
+        
+        private final class PageSpliterator extends RangeSpliterator implements Spliterator.OfInt {
+            PageSpliterator(int origin, int fence, int expectedModCount) {
+                super(origin, fence, expectedModCount);
+            }
+            
+            @Override
+            public boolean tryAdvance(IntConsumer action) {
+                Objects.requireNonNull(action);
+                int i = index;
+                if (i >= fence()) {
+                    return false;
                 }
-                return null;
+                index = i + 1;
+                action.accept(pages[i]);
+                checkForComodification();
+                return true;
+            }
+            
+            @Override
+            public void forEachRemaining(IntConsumer action) {
+                Objects.requireNonNull(action);
+                int[] array = pages;
+                int end = fence();
+                for (int i = index; i < end; i++) {
+                    action.accept(array[i]);
+                }
+                index = end;
+                checkForComodification();
+            }
+            
+            @Override
+            public Spliterator.OfInt trySplit() {
+                int low = split();
+                return low < 0 ? null : new PageSpliterator(low, index, expectedModCount);
+            }
+            
+            @Override
+            public int characteristics() {
+                return ORDERED | SIZED | SUBSIZED;
             }
         }
     }
     
+    /*
+     * Disk-backed catalog for collections that do not fit on the heap. The data file
+     * starts with a header (magic, record count) followed by length-prefixed records:
+     * [int title bytes][int pages][UTF-8 title]. A side index file holds the offset of
+     * every INDEX_STRIDE-th record for random access. Records are read through
+     * read-only mappings of fixed-size segments; each mapping overlaps the next
+     * segment by one maximal record, so a record starting in a segment never has to
+     * be stitched together from two mappings. Closing the catalog invalidates its
+     * cursors: the next segment change, like any get(), throws IllegalStateException.
+     */
+    private static final class MappedBookCollection implements Container<String>, AutoCloseable {
+        private static final int MAGIC = 0x424F4F4B;
+        private static final int HEADER_BYTES = 16;
+        private static final int RECORD_HEADER_BYTES = 8;
+        private static final int INDEX_STRIDE = 64;
+        private static final int MAX_TITLE_BYTES = 4_096;
+        private static final int MAX_RECORD_BYTES = RECORD_HEADER_BYTES + MAX_TITLE_BYTES;
+        private static final int RANDOM_ACCESS_SEGMENTS = 16;
+        
+        private final FileChannel data;
+        private final LongBuffer offsets;
+        private final long size;
+        private final long fileSize;
+        private final int segmentBytes;
+        private final ExecutorService prefetcher;
+        private final AtomicLong prefetched = new AtomicLong();
+        // Bounded LRU of mappings for get(); bounds address space, not just heap
+        private final LinkedHashMap<Long, MappedByteBuffer> randomSegments = 
+            new LinkedHashMap<>(RANDOM_ACCESS_SEGMENTS * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+                    return size() > RANDOM_ACCESS_SEGMENTS;
+                }
+            };
+        
+        public MappedBookCollection(Path dataPath, Path indexPath, int segmentBytes) throws IOException {
+            // A mapping covers a segment plus one maximal record and must stay within int range
+            if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE - MAX_RECORD_BYTES) {
+                throw new IllegalArgumentException("Invalid segment size: " + segmentBytes);
+            }
+            this.data = FileChannel.open(dataPath, StandardOpenOption.READ);
+            try {
+                this.fileSize = data.size();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                while (header.hasRemaining() && data.read(header, header.position()) > 0) {
+                    // keep reading until the header is complete or the file ends
+                }
+                if (header.position() < HEADER_BYTES || header.getInt(0) != MAGIC || header.getLong(8) < 0) {
+                    throw new IOException("Not a book catalog: " + dataPath);
+                }
+                this.size = header.getLong(8);
+                try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                    // The mapping stays valid after the channel is closed
+                    this.offsets = index.map(FileChannel.MapMode.READ_ONLY, 0, index.size()).asLongBuffer();
+                }
+                long expected = (size + INDEX_STRIDE - 1) / INDEX_STRIDE;
+                if (offsets.remaining() != expected) {
+                    throw new IOException("Index " + indexPath + " holds " + offsets.remaining() 
+                            + " offsets, expected " + expected + " for " + size + " records");
+                }
+            } catch (IOException | RuntimeException e) {
+                data.close();
+                throw e;
+            }
+            this.segmentBytes = segmentBytes;
+            this.prefetcher = Executors.newSingleThreadExecutor(
+                Thread.ofPlatform().daemon().name("catalog-prefetch").factory());
+        }
+        
+        public long size() {
+            return size;
+        }
+        
+        public long prefetchedSegments() {
+            return prefetched.get();
+        }
+        
+        @Override
+        public Iterator<String> createIterator() {
+            return new TitleCursor();
+        }
+        
+        public IntIterator createPageIterator() {
+            return new PageCursor();
+        }
+        
+        @Override
+        public Spliterator<String> spliterator() {
+            Iterator<String> cursor = createIterator();
+            return Spliterators.spliterator(new java.util.Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return cursor.hasNext();
+                }
+                
+                @Override
+                public String next() {
+                    return cursor.next();
+                }
+            }, size, Spliterator.ORDERED | Spliterator.NONNULL);
+        }
+        
+        // Random access: jump to the nearest indexed record, then skip forward
+        public synchronized String get(long recordIndex) {
+            ensureOpen();
+            long offset = offsets.get((int) (Objects.checkIndex(recordIndex, size) / INDEX_STRIDE));
+            long number = offset / segmentBytes;
+            MappedByteBuffer segment = randomAccess(number);
+            for (long skip = recordIndex % INDEX_STRIDE; skip > 0; skip--) {
+                offset += RECORD_HEADER_BYTES + segment.getInt(positionIn(offset));
+                if (offset / segmentBytes != number) {
+                    number = offset / segmentBytes;
+                    segment = randomAccess(number);
+                }
+            }
+            int position = positionIn(offset);
+            byte[] bytes = new byte[segment.getInt(position)];
+            segment.get(position + RECORD_HEADER_BYTES, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        
+        private void ensureOpen() {
+            if (!data.isOpen()) {
+                throw new IllegalStateException("Catalog is closed");
+            }
+        }
+        
+        private MappedByteBuffer randomAccess(long number) {
+            return randomSegments.computeIfAbsent(number, this::map);
+        }
+        
+        private int positionIn(long offset) {
+            return (int) (offset % segmentBytes);
+        }
+        
+        private MappedByteBuffer map(long number) {
+            long start = number * segmentBytes;
+            long length = Math.min(fileSize - start, (long) segmentBytes + MAX_RECORD_BYTES);
+            try {
+                return data.map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        // Queued prefetches still run, so no cursor waits on a future that never completes
+        @Override
+        public void close() throws IOException {
+            prefetcher.shutdown();
+            data.close();
+        }
+        
+        // Sequential cursor holding at most two mapped segments: the one being decoded
+        // and the next one, which the prefetcher maps and faults in ahead of time
+        private abstract class RecordCursor {
+            private long remaining = size;
+            private long offset = HEADER_BYTES;
+            private long segmentNumber = -1;
+            private MappedByteBuffer segment;
+            private CompletableFuture<MappedByteBuffer> following;
+            
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+            
+            // Positions the cursor on the next record and returns its offset in segment()
+            protected int advance() {
+                if (remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                long number = offset / segmentBytes;
+                if (number != segmentNumber) {
+                    moveTo(number);
+                }
+                int position = positionIn(offset);
+                offset += RECORD_HEADER_BYTES + segment.getInt(position);
+                remaining--;
+                return position;
+            }
+            
+            protected MappedByteBuffer segment() {
+                return segment;
+            }
+            
+            private void moveTo(long number) {
+                ensureOpen();
+                segment = following != null && number == segmentNumber + 1 ? following.join() : map(number);
+                segmentNumber = number;
+                long next = number + 1;
+                following = null;
+                if (next * segmentBytes < fileSize) {
+                    try {
+                        following = CompletableFuture.supplyAsync(() -> {
+                            MappedByteBuffer mapped = map(next);
+                            mapped.load();
+                            prefetched.incrementAndGet();
+                            return mapped;
+                        }, prefetcher);
+                    } catch (RejectedExecutionException e) {
+                        // Closed concurrently; the next move fails in ensureOpen()
+                    }
+                }
+            }
+        }
+        
+        private final class TitleCursor extends RecordCursor implements Iterator<String> {
+            private byte[] scratch = new byte[256];
+            
+            @Override
+            public String next() {
+                int position = advance();
+                int length = segment().getInt(position);
+                if (scratch.length < length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                segment().get(position + RECORD_HEADER_BYTES, scratch, 0, length);
+                return new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+        }
+        
+        private final class PageCursor extends RecordCursor implements IntIterator {
+            @Override
+            public int nextInt() {
+                int position = advance();
+                return segment().getInt(position + 4);
+            }
+        }
+        
+        // Appends records through a direct buffer and writes the header on close
+        private static final class Writer implements AutoCloseable {
+            private final FileChannel data;
+            private final FileChannel index;
+            private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+            private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(1 << 12);
+            private long position = HEADER_BYTES;
+            private long count;
+            
+            Writer(Path dataPath, Path indexPath) throws IOException {
+                this.data = FileChannel.open(dataPath, StandardOpenOption.CREATE, 
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                this.index = FileChannel.open(indexPath, StandardOpenOption.CREATE, 
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                data.position(HEADER_BYTES);
+            }
+            
+            public void append(String title, int pages) throws IOException {
+                byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > MAX_TITLE_BYTES) {
+                    throw new IllegalArgumentException("Title longer than " + MAX_TITLE_BYTES + " bytes");
+                }
+                if (count % INDEX_STRIDE == 0) {
+                    if (!indexBuffer.hasRemaining()) {
+                        drain(index, indexBuffer);
+                    }
+                    indexBuffer.putLong(position);
+                }
+                if (buffer.remaining() < RECORD_HEADER_BYTES + bytes.length) {
+                    drain(data, buffer);
+                }
+                buffer.putInt(bytes.length).putInt(pages).put(bytes);
+                position += RECORD_HEADER_BYTES + bytes.length;
+                count++;
+            }
+            
+            private static void drain(FileChannel channel, ByteBuffer source) throws IOException {
+                source.flip();
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+                source.clear();
+            }
+            
+            @Override
+            public void close() throws IOException {
+                try {
+                    drain(data, buffer);
+                    drain(index, indexBuffer);
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(0).putLong(count).flip();
+                    while (header.hasRemaining()) {
+                        data.write(header, header.position());
+                    }
+                } finally {
+                    data.close();
+                    index.close();
+                }
+            }
+        }
+    }
+    
+    // Iterator over a plain array, e.g. a page of search results
+    private static final class ArrayIterator<T> implements Iterator<T> {
+        private final T[] items;
+        private int index;
+        
+        ArrayIterator(T[] items) {
+            this.items = items;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return index < items.length;
+        }
+        
+        @Override
+        public T next() {
+            if (index >= items.length) {
+                throw new NoSuchElementException();
+            }
+            return items[index++];
+        }
+        
+        @Override
+        public int nextBatch(T[] dest) {
+            int count = Math.min(dest.length, items.length - index);
+            System.arraycopy(items, index, dest, 0, count);
+            index += count;
+            return count;
+        }
+    }
+    
+    // Bridges a java.util.Iterator, e.g. from a stream, back to the project's Iterator
+    private static <T> Iterator<T> adapt(java.util.Iterator<T> source) {
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+            
+            @Override
+            public T next() {
+                return source.next();
+            }
+        };
+    }
+    
+    // Consumers shared by every iterator type, as in a library; their call sites see
+    // several implementations and cannot inline hasNext()/next() for any one of them
+    private static long sumLengths(Iterator<String> iterator) {
+        long sum = 0;
+        while (iterator.hasNext()) {
+            sum += iterator.next().length();
+        }
+        return sum;
+    }
+    
+    private static long sumLengthsBatched(Iterator<String> iterator, String[] chunk) {
+        long sum = 0;
+        for (int count; (count = iterator.nextBatch(chunk)) > 0; ) {
+            for (int i = 0; i < count; i++) {
+                sum += chunk[i].length();
+            }
+        }
+        return sum;
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private static String catalogTitle(long number) {
+        return "Collected Works, Volume " + number;
+    }
+    
+    // Best of five runs, in milliseconds
+    private static double bestMillis(Runnable scan) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            scan.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+    
     @Override
     public void demonstrate() {
         Logger.logPattern("Iterator Pattern");
         
         BookCollection collection = new BookCollection();
-        collection.addBook("Design Patterns");
-        collection.addBook("Clean Code");
-        collection.addBook("Refactoring");
-        collection.addBook("The Pragmatic Programmer");
+        collection.addBook("Design Patterns", 395);
+        collection.addBook("Clean Code", 464);
+        collection.addBook("Refactoring", 448);
+        collection.addBook("The Pragmatic Programmer", 352);
         
         Logger.logSection("Iterating through books");
         Iterator<String> iterator = collection.createIterator();
         while (iterator.hasNext()) {
             Logger.log("Book: " + iterator.next());
         }
+        
+        Logger.logSection("Streams and primitive pages");
+        Logger.log("Titles with 'Code' or 'Pattern': " + collection.stream()
+            .filter(title -> title.contains("Code") || title.contains("Pattern"))
+            .toList());
+        IntIterator pageIterator = collection.createPageIterator();
+        int pageTotal = 0;
+        while (pageIterator.hasNext()) {
+            pageTotal += pageIterator.nextInt();
+        }
+        Logger.log("Total pages (IntIterator): " + pageTotal + ", longest (IntStream): " 
+                + collection.pageStream().max().orElse(0));
+        
+        Logger.logSection("Fail-fast iteration");
+        try {
+            Iterator<String> live = collection.createIterator();
+            live.next();
+            collection.addBook("Working Effectively with Legacy Code", 456);
+            live.next();
+        } catch (ConcurrentModificationException e) {
+            Logger.log("Adding a book mid-iteration threw ConcurrentModificationException");
+        }
+        try {
+            collection.stream().forEach(title -> collection.addBook(title + " (2nd edition)"));
+        } catch (ConcurrentModificationException e) {
+            Logger.log("Adding a book mid-stream threw ConcurrentModificationException");
+        }
+        
+        int books = 2_000_000;
+        Logger.logSection(String.format("Parallel Scan (%,d books, %d workers)", 
+                books, ForkJoinPool.getCommonPoolParallelism()));
+        BookCollection library = new BookCollection();
+        Random random = new Random(17);
+        String[] shelf = new String[1_000];
+        for (int i = 0; i < shelf.length; i++) {
+            shelf[i] = "Volume " + i;
+        }
+        for (int i = 0; i < books; i++) {
+            library.addBook(shelf[random.nextInt(shelf.length)], 50 + random.nextInt(950));
+        }
+        long[] results = new long[4];
+        double sequentialTitles = bestMillis(() -> results[0] = library.stream()
+            .filter(title -> title.endsWith("7")).count());
+        double parallelTitles = bestMillis(() -> results[1] = library.parallelStream()
+            .filter(title -> title.endsWith("7")).count());
+        double sequentialPages = bestMillis(() -> results[2] = library.pageStream().asLongStream().sum());
+        double parallelPages = bestMillis(() -> results[3] = library.parallelPageStream().asLongStream().sum());
+        Logger.log(String.format("Titles ending in 7: %,d; sequential %.1f ms, parallel %.1f ms", 
+                results[0], sequentialTitles, parallelTitles));
+        Logger.log(String.format("Total pages: %,d; sequential %.1f ms, parallel %.1f ms", 
+                results[2], sequentialPages, parallelPages));
+        Logger.log("Parallel results match: " + (results[0] == results[1] && results[2] == results[3]));
+        
+        demonstrateBatches();
+        try {
+            demonstrateMappedCatalog();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private void demonstrateMappedCatalog() throws IOException {
+        long books = 2_000_000;
+        Logger.logSection(String.format("Memory-Mapped Catalog (%,d books on disk, 4 MB segments)", books));
+        Path directory = Files.createTempDirectory("book-catalog");
+        Path dataPath = directory.resolve("books.dat");
+        Path indexPath = directory.resolve("books.idx");
+        try {
+            long start = System.nanoTime();
+            try (MappedBookCollection.Writer writer = new MappedBookCollection.Writer(dataPath, indexPath)) {
+                for (long i = 0; i < books; i++) {
+                    writer.append(catalogTitle(i), (int) (50 + i % 950));
+                }
+            }
+            Logger.log(String.format("Wrote %,d KB of records and a %,d KB offset index in %d ms", 
+                    Files.size(dataPath) / 1024, Files.size(indexPath) / 1024, (System.nanoTime() - start) / 1_000_000));
+            
+            try (MappedBookCollection catalog = new MappedBookCollection(dataPath, indexPath, 4 << 20)) {
+                long heapBefore = usedHeap();
+                start = System.nanoTime();
+                long sevens = 0;
+                Iterator<String> titles = catalog.createIterator();
+                while (titles.hasNext()) {
+                    if (titles.next().endsWith("7")) {
+                        sevens++;
+                    }
+                }
+                long titleMillis = (System.nanoTime() - start) / 1_000_000;
+                long pages = 0;
+                IntIterator pageIterator = catalog.createPageIterator();
+                while (pageIterator.hasNext()) {
+                    pages += pageIterator.nextInt();
+                }
+                long heapAfter = usedHeap();
+                Logger.log(String.format("Streamed %,d titles in %d ms (%,d end in 7), %,d pages in total", 
+                        catalog.size(), titleMillis, sevens, pages));
+                Logger.log(String.format("Segments prefetched: %d; heap in use before %,d KB, after %,d KB", 
+                        catalog.prefetchedSegments(), heapBefore / 1024, heapAfter / 1024));
+                Logger.log("Stream over the catalog, titles ending in 99999: " + catalog.stream()
+                    .filter(title -> title.endsWith("99999")).count());
+                
+                Random random = new Random(23);
+                int probes = 100_000;
+                boolean correct = true;
+                start = System.nanoTime();
+                for (int probe = 0; probe < probes; probe++) {
+                    long book = random.nextLong(books);
+                    correct &= catalog.get(book).equals(catalogTitle(book));
+                }
+                Logger.log(String.format("Random access: %,d lookups, %.1f us each, all correct: %b; last book: %s", 
+                        probes, (System.nanoTime() - start) / 1e3 / probes, correct, catalog.get(books - 1)));
+            }
+        } finally {
+            Files.deleteIfExists(dataPath);
+            Files.deleteIfExists(indexPath);
+            Files.deleteIfExists(directory);
+        }
+    }
+    
+    private void demonstrateBatches() {
+        int books = 10_000_000;
+        Logger.logSection(String.format("Per-element vs Batched Iteration (%,d books)", books));
+        BookCollection library = new BookCollection();
+        String[] shelf = new String[1_000];
+        for (int i = 0; i < shelf.length; i++) {
+            shelf[i] = "Volume " + i;
+        }
+        for (int i = 0; i < books; i++) {
+            library.addBook(shelf[(i * 31) % shelf.length], 50 + i % 950);
+        }
+        
+        // Warm the shared consumers with three iterator types before timing
+        BookCollection small = new BookCollection();
+        for (String title : shelf) {
+            small.addBook(title);
+        }
+        String[] titleChunk = new String[1_024];
+        for (int round = 0; round < 2_000; round++) {
+            sumLengths(small.createIterator());
+            sumLengths(new ArrayIterator<>(shelf));
+            sumLengths(adapt(small.stream().iterator()));
+            sumLengthsBatched(small.createIterator(), titleChunk);
+            sumLengthsBatched(new ArrayIterator<>(shelf), titleChunk);
+            sumLengthsBatched(adapt(small.stream().iterator()), titleChunk);
+        }
+        long[] shared = new long[2];
+        double sharedElement = bestMillis(() -> shared[0] = sumLengths(library.createIterator()));
+        double sharedBatch = bestMillis(() -> shared[1] = sumLengthsBatched(library.createIterator(), titleChunk));
+        
+        long[] sums = new long[6];
+        double elementTitles = bestMillis(() -> {
+            long sum = 0;
+            Iterator<String> iterator = library.createIterator();
+            while (iterator.hasNext()) {
+                sum += iterator.next().length();
+            }
+            sums[0] = sum;
+        });
+        double batchTitles = bestMillis(() -> {
+            long sum = 0;
+            String[] chunk = new String[1_024];
+            Iterator<String> iterator = library.createIterator();
+            for (int count; (count = iterator.nextBatch(chunk)) > 0; ) {
+                for (int i = 0; i < count; i++) {
+                    sum += chunk[i].length();
+                }
+            }
+            sums[1] = sum;
+        });
+        double forEachTitles = bestMillis(() -> {
+            long[] sum = new long[1];
+            library.createIterator().forEachRemaining(title -> sum[0] += title.length());
+            sums[2] = sum[0];
+        });
+        double elementPages = bestMillis(() -> {
+            long sum = 0;
+            IntIterator iterator = library.createPageIterator();
+            while (iterator.hasNext()) {
+                sum += iterator.nextInt();
+            }
+            sums[3] = sum;
+        });
+        double batchPages = bestMillis(() -> {
+            long sum = 0;
+            int[] chunk = new int[1_024];
+            IntIterator iterator = library.createPageIterator();
+            for (int count; (count = iterator.nextBatch(chunk)) > 0; ) {
+                for (int i = 0; i < count; i++) {
+                    sum += chunk[i];
+                }
+            }
+            sums[4] = sum;
+        });
+        double forEachPages = bestMillis(() -> {
+            long[] sum = new long[1];
+            library.createPageIterator().forEachRemaining(pages -> sum[0] += pages);
+            sums[5] = sum[0];
+        });
+        Logger.log(String.format("Titles, consumer sees 3 iterator types: next() %.1f ms, nextBatch(1,024) %.1f ms", 
+                sharedElement, sharedBatch));
+        Logger.log(String.format("Titles, single iterator type (inlined): next() %.1f ms, nextBatch %.1f ms, forEachRemaining %.1f ms", 
+                elementTitles, batchTitles, forEachTitles));
+        Logger.log(String.format("Pages, single iterator type (inlined):  nextInt() %.1f ms, nextBatch %.1f ms, forEachRemaining %.1f ms", 
+                elementPages, batchPages, forEachPages));
+        Logger.log("Results match: " + (shared[0] == sums[0] && shared[1] == sums[0] && sums[0] == sums[1] 
+                && sums[1] == sums[2] && sums[3] == sums[4] && sums[4] == sums[5]));
     }
 }
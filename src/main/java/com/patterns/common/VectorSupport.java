@@ -0,0 +1,20 @@
+package com.patterns.common;
+
+/**
+ * Detects whether the incubating Vector API module was resolved at startup.
+ * Classes that touch jdk.incubator.vector must only be loaded after this check,
+ * so the same build runs with or without --add-modules jdk.incubator.vector.
+ */
+public final class VectorSupport {
+    
+    private static final boolean AVAILABLE = 
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    
+    private VectorSupport() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+    
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+}
@@ -2,8 +2,20 @@ package com.patterns.structural;
 
 import com.patterns.common.Demonstrable;
 import com.patterns.common.Logger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
 
 /**
  * Composite Pattern - Composes objects into tree structures to represent
@@ -27,6 +39,15 @@ public final class CompositePattern implements Demonstrable {
             this.size = size;
         }
         
+        public String getName() {
+            return name;
+        }
+        
+        public String getExtension() {
+            int dot = name.lastIndexOf('.');
+            return dot < 0 ? "" : name.substring(dot + 1);
+        }
+        
         @Override
         public void display(int depth) {
             Logger.log("  ".repeat(depth) + "- File: " + name + " (" + size + "KB)");
@@ -51,6 +72,10 @@ public final class CompositePattern implements Demonstrable {
             children.add(component);
         }
         
+        public List<FileSystemComponent> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+        
         @Override
         public void display(int depth) {
             Logger.log("  ".repeat(depth) + "+ Directory: " + name);
@@ -65,6 +90,357 @@ public final class CompositePattern implements Demonstrable {
         }
     }
     
+    // Per-task accumulator for tree queries; partial results are merged when tasks join
+    private interface FileAccumulator<A extends FileAccumulator<A>> {
+        void accept(File file);
+        void merge(A other);
+    }
+    
+    private static final class SizeAccumulator implements FileAccumulator<SizeAccumulator> {
+        private long total;
+        
+        @Override
+        public void accept(File file) {
+            total += file.getSize();
+        }
+        
+        @Override
+        public void merge(SizeAccumulator other) {
+            total += other.total;
+        }
+    }
+    
+    private static final class ExtensionAccumulator implements FileAccumulator<ExtensionAccumulator> {
+        private final Map<String, Long> counts = new HashMap<>();
+        
+        @Override
+        public void accept(File file) {
+            counts.merge(file.getExtension(), 1L, Long::sum);
+        }
+        
+        @Override
+        public void merge(ExtensionAccumulator other) {
+            other.counts.forEach((extension, count) -> counts.merge(extension, count, Long::sum));
+        }
+    }
+    
+    // Bounded min-heap: the smallest of the current top K sits at the head and is evicted first
+    private static final class TopKAccumulator implements FileAccumulator<TopKAccumulator> {
+        private static final Comparator<File> BY_SIZE = Comparator.comparingInt(File::getSize);
+        
+        private final int k;
+        private final PriorityQueue<File> heap;
+        
+        public TopKAccumulator(int k) {
+            this.k = k;
+            this.heap = new PriorityQueue<>(Math.max(1, k), BY_SIZE);
+        }
+        
+        @Override
+        public void accept(File file) {
+            if (heap.size() < k) {
+                heap.offer(file);
+            } else if (k > 0 && file.getSize() > heap.peek().getSize()) {
+                heap.poll();
+                heap.offer(file);
+            }
+        }
+        
+        @Override
+        public void merge(TopKAccumulator other) {
+            for (File file : other.heap) {
+                accept(file);
+            }
+        }
+        
+        public List<File> toSortedList() {
+            List<File> result = new ArrayList<>(heap);
+            result.sort(BY_SIZE.reversed());
+            return result;
+        }
+    }
+    
+    // Traversal engine: iterative walk over an explicit stack, split across a ForkJoinPool
+    private static final class TreeTraversal {
+        private static final int DEFAULT_SPLIT_THRESHOLD = 1024;
+        
+        private final ForkJoinPool pool;
+        private final int splitThreshold;
+        
+        public TreeTraversal() {
+            this(ForkJoinPool.commonPool(), DEFAULT_SPLIT_THRESHOLD);
+        }
+        
+        public TreeTraversal(ForkJoinPool pool, int splitThreshold) {
+            if (splitThreshold < 1) {
+                throw new IllegalArgumentException("Split threshold must be positive");
+            }
+            this.pool = pool;
+            this.splitThreshold = splitThreshold;
+        }
+        
+        public long totalSize(FileSystemComponent root) {
+            return run(root, SizeAccumulator::new).total;
+        }
+        
+        public Map<String, Long> countByExtension(FileSystemComponent root) {
+            return run(root, ExtensionAccumulator::new).counts;
+        }
+        
+        public List<File> largestFiles(FileSystemComponent root, int k) {
+            if (k < 0) {
+                throw new IllegalArgumentException("k must not be negative");
+            }
+            return run(root, () -> new TopKAccumulator(k)).toSortedList();
+        }
+        
+        public <A extends FileAccumulator<A>> A run(FileSystemComponent root, Supplier<A> supplier) {
+            Deque<FileSystemComponent> stack = new ArrayDeque<>();
+            stack.push(root);
+            return pool.invoke(new TraversalTask<>(stack, supplier, splitThreshold));
+        }
+    }
+    
+    /*
+     * Each task drains its own stack of pending nodes. Once it has visited the
+     * threshold's worth of nodes since its last split, the frontier still holds
+     * at least two entries and the pool is short of queued work, half of the
+     * frontier is handed to a forked subtask. The bottom half holds the siblings
+     * queued earliest, i.e. the largest pending subtrees, so the split pays off
+     * whatever the fan-out. Directory nesting depth never touches the call stack.
+     */
+    private static final class TraversalTask<A extends FileAccumulator<A>> extends RecursiveTask<A> {
+        private final Deque<FileSystemComponent> stack;
+        private final Supplier<A> supplier;
+        private final int splitThreshold;
+        
+        TraversalTask(Deque<FileSystemComponent> stack, Supplier<A> supplier, int splitThreshold) {
+            this.stack = stack;
+            this.supplier = supplier;
+            this.splitThreshold = splitThreshold;
+        }
+        
+        @Override
+        protected A compute() {
+            A result = supplier.get();
+            List<TraversalTask<A>> forked = new ArrayList<>();
+            int visited = 0;
+            
+            while (!stack.isEmpty()) {
+                if (visited >= splitThreshold && stack.size() >= 2 && getSurplusQueuedTaskCount() < 2) {
+                    TraversalTask<A> task = new TraversalTask<>(splitOff(), supplier, splitThreshold);
+                    task.fork();
+                    forked.add(task);
+                    visited = 0;
+                }
+                
+                FileSystemComponent node = stack.pop();
+                visited++;
+                if (node instanceof Directory directory) {
+                    for (FileSystemComponent child : directory.children) {
+                        stack.push(child);
+                    }
+                } else if (node instanceof File file) {
+                    result.accept(file);
+                }
+            }
+            
+            for (TraversalTask<A> task : forked) {
+                result.merge(task.join());
+            }
+            return result;
+        }
+        
+        // Hands over the bottom half of the stack, i.e. the nodes queued earliest
+        private Deque<FileSystemComponent> splitOff() {
+            Deque<FileSystemComponent> half = new ArrayDeque<>();
+            for (int i = stack.size() / 2; i > 0; i--) {
+                half.push(stack.pollLast());
+            }
+            return half;
+        }
+    }
+    
+    // Receives rendered lines; the buffer is reused, so a line is only valid during the call
+    private interface LineSink {
+        void accept(CharSequence line);
+    }
+    
+    // Resume point of a paged render: the next child index of every open directory
+    private static final class PageCursor {
+        static final PageCursor START = new PageCursor(new int[0], false);
+        static final PageCursor END = new PageCursor(new int[0], true);
+        
+        private final int[] nextChild;
+        private final boolean started;
+        
+        private PageCursor(int[] nextChild, boolean started) {
+            this.nextChild = nextChild;
+            this.started = started;
+        }
+        
+        public boolean isEnd() {
+            return this == END;
+        }
+    }
+    
+    /*
+     * Streaming renderer: walks the tree with an explicit frame stack and writes
+     * every line into one reusable buffer, slicing the indent from a precomputed
+     * run of spaces. A page stops after maxLines lines and returns a cursor that
+     * holds only one index per open directory, so memory stays independent of
+     * the tree size.
+     */
+    private static final class TreeRenderer {
+        private static final int INDENT_WIDTH = 2;
+        
+        private final int maxDepth;
+        private final int maxSiblings;
+        private final StringBuilder line = new StringBuilder(128);
+        private char[] indent = " ".repeat(64 * INDENT_WIDTH).toCharArray();
+        private Directory[] directories = new Directory[16];
+        private int[] nextChild = new int[16];
+        private int frames;
+        
+        public TreeRenderer(int maxDepth, int maxSiblings) {
+            if (maxDepth < 0 || maxSiblings < 0) {
+                throw new IllegalArgumentException("Depth and sibling limits must not be negative");
+            }
+            this.maxDepth = maxDepth;
+            this.maxSiblings = maxSiblings;
+        }
+        
+        public PageCursor renderPage(FileSystemComponent root, PageCursor cursor, int maxLines, LineSink sink) {
+            if (maxLines <= 0) {
+                throw new IllegalArgumentException("Page size must be positive");
+            }
+            if (cursor.isEnd()) {
+                return cursor;
+            }
+            
+            int emitted = 0;
+            if (cursor.started) {
+                restore(root, cursor);
+            } else {
+                frames = 0;
+                emitNode(root, 0, sink);
+                emitted++;
+                if (root instanceof Directory directory && maxDepth > 0) {
+                    push(directory);
+                }
+            }
+            
+            while (frames > 0 && emitted < maxLines) {
+                int top = frames - 1;
+                List<FileSystemComponent> children = directories[top].children;
+                int index = nextChild[top];
+                int visible = Math.min(children.size(), maxSiblings);
+                if (index < visible) {
+                    nextChild[top] = index + 1;
+                    FileSystemComponent child = children.get(index);
+                    emitNode(child, frames, sink);
+                    emitted++;
+                    if (child instanceof Directory directory && frames < maxDepth) {
+                        push(directory);
+                    }
+                } else if (index == visible && children.size() > visible) {
+                    nextChild[top] = index + 1;
+                    emitMore(children.size() - visible, frames, sink);
+                    emitted++;
+                } else {
+                    frames--;
+                }
+            }
+            
+            while (frames > 0 && !hasPendingLines(frames - 1)) {
+                frames--;
+            }
+            return frames == 0 ? PageCursor.END 
+                    : new PageCursor(Arrays.copyOf(nextChild, frames), true);
+        }
+        
+        private boolean hasPendingLines(int frame) {
+            int size = directories[frame].children.size();
+            int visible = Math.min(size, maxSiblings);
+            return nextChild[frame] < visible || (nextChild[frame] == visible && size > visible);
+        }
+        
+        // Rebuilds the frame stack by following the cursor indices down from the root
+        private void restore(FileSystemComponent root, PageCursor cursor) {
+            frames = 0;
+            Directory directory = (Directory) root;
+            for (int i = 0; i < cursor.nextChild.length; i++) {
+                push(directory);
+                nextChild[i] = cursor.nextChild[i];
+                if (i + 1 < cursor.nextChild.length) {
+                    directory = (Directory) directory.children.get(cursor.nextChild[i] - 1);
+                }
+            }
+        }
+        
+        private void push(Directory directory) {
+            if (frames == directories.length) {
+                directories = Arrays.copyOf(directories, frames * 2);
+                nextChild = Arrays.copyOf(nextChild, frames * 2);
+            }
+            directories[frames] = directory;
+            nextChild[frames] = 0;
+            frames++;
+        }
+        
+        private void emitNode(FileSystemComponent node, int depth, LineSink sink) {
+            startLine(depth);
+            if (node instanceof Directory directory) {
+                line.append("+ Directory: ").append(directory.name);
+            } else if (node instanceof File file) {
+                line.append("- File: ").append(file.name).append(" (").append(file.size).append("KB)");
+            }
+            sink.accept(line);
+        }
+        
+        private void emitMore(int hidden, int depth, LineSink sink) {
+            startLine(depth);
+            line.append("\u2026 ").append(String.format(Locale.ROOT, "%,d", hidden)).append(" more");
+            sink.accept(line);
+        }
+        
+        private void startLine(int depth) {
+            int width = depth * INDENT_WIDTH;
+            if (width > indent.length) {
+                indent = " ".repeat(Math.max(width, indent.length * 2)).toCharArray();
+            }
+            line.setLength(0);
+            line.append(indent, 0, width);
+        }
+    }
+    
+    private static Directory generateTree(int directories, int filesPerDirectory) {
+        String[] extensions = {"txt", "jpg", "pdf", "md", "java"};
+        Directory root = new Directory("generated");
+        for (int d = 0; d < directories; d++) {
+            Directory directory = new Directory("dir" + d);
+            for (int f = 0; f < filesPerDirectory; f++) {
+                int size = (d * 31 + f * 17) % 4096 + 1;
+                directory.add(new File("file" + f + "." + extensions[f % extensions.length], size));
+            }
+            root.add(directory);
+        }
+        return root;
+    }
+    
+    // Complete tree with the given fan-out: a frontier of small width, however many files
+    private static Directory generateBalancedTree(int depth, int fanOut) {
+        Directory directory = new Directory("level" + depth);
+        for (int i = 0; i < fanOut; i++) {
+            if (depth == 1) {
+                directory.add(new File("leaf" + i + ".dat", i + 1));
+            } else {
+                directory.add(generateBalancedTree(depth - 1, fanOut));
+            }
+        }
+        return directory;
+    }
+    
     @Override
     public void demonstrate() {
         Logger.logPattern("Composite Pattern");
@@ -86,5 +462,47 @@ public final class CompositePattern implements Demonstrable {
         Logger.logSection("File System Structure");
         root.display(0);
         Logger.log("\nTotal size: " + root.getSize() + "KB");
+        
+        Logger.logSection("Tree Queries (fork-join traversal)");
+        TreeTraversal traversal = new TreeTraversal();
+        Logger.log("Total size: " + traversal.totalSize(root) + "KB");
+        Logger.log("Files by extension: " + traversal.countByExtension(root));
+        for (File file : traversal.largestFiles(root, 2)) {
+            Logger.log("Largest: " + file.getName() + " (" + file.getSize() + "KB)");
+        }
+        
+        Logger.logSection("Large Tree: sequential vs parallel");
+        Directory large = generateTree(2_000, 250);
+        TreeTraversal sequential = new TreeTraversal(ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+        long start = System.nanoTime();
+        long sequentialTotal = sequential.totalSize(large);
+        long sequentialMicros = (System.nanoTime() - start) / 1_000;
+        start = System.nanoTime();
+        long parallelTotal = traversal.totalSize(large);
+        long parallelMicros = (System.nanoTime() - start) / 1_000;
+        Logger.log("Sequential: " + sequentialTotal + "KB in " + sequentialMicros + "us");
+        Logger.log("Parallel (" + ForkJoinPool.commonPool().getParallelism() + " workers): " 
+                + parallelTotal + "KB in " + parallelMicros + "us");
+        
+        Logger.logSection("Balanced Binary Tree: sequential vs parallel");
+        Directory balanced = generateBalancedTree(19, 2);
+        start = System.nanoTime();
+        sequentialTotal = sequential.totalSize(balanced);
+        sequentialMicros = (System.nanoTime() - start) / 1_000;
+        start = System.nanoTime();
+        parallelTotal = traversal.totalSize(balanced);
+        parallelMicros = (System.nanoTime() - start) / 1_000;
+        Logger.log("Sequential: " + sequentialTotal + "KB in " + sequentialMicros + "us");
+        Logger.log("Parallel (" + ForkJoinPool.commonPool().getParallelism() + " workers): " 
+                + parallelTotal + "KB in " + parallelMicros + "us");
+        
+        Logger.logSection("Paged Rendering (depth 2, 3 siblings, 4 lines per page)");
+        Directory wide = generateTree(2, 9_003);
+        TreeRenderer renderer = new TreeRenderer(2, 3);
+        PageCursor cursor = PageCursor.START;
+        for (int page = 1; !cursor.isEnd(); page++) {
+            Logger.log("Page " + page + ":");
+            cursor = renderer.renderPage(wide, cursor, 4, line -> Logger.log("  " + line));
+        }
     }
 }
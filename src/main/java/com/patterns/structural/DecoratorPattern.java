@@ -2,6 +2,13 @@ package com.patterns.structural;
 
 import com.patterns.common.Demonstrable;
 import com.patterns.common.Logger;
+import com.patterns.common.VectorSupport;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
 
 /**
  * Decorator Pattern - Attaches additional responsibilities to an object
@@ -13,10 +20,13 @@ public final class DecoratorPattern implements Demonstrable {
     private interface Coffee {
         String getDescription();
         double getCost();
+        long getCostCents();
     }
     
     // Concrete Component
     private static final class SimpleCoffee implements Coffee {
+        private static final long CENTS = 200;
+        
         @Override
         public String getDescription() {
             return "Simple Coffee";
@@ -24,7 +34,12 @@ public final class DecoratorPattern implements Demonstrable {
         
         @Override
         public double getCost() {
-            return 2.00;
+            return CENTS / 100.0;
+        }
+        
+        @Override
+        public long getCostCents() {
+            return CENTS;
         }
     }
     
@@ -45,57 +60,355 @@ public final class DecoratorPattern implements Demonstrable {
         public double getCost() {
             return decoratedCoffee.getCost();
         }
+        
+        @Override
+        public long getCostCents() {
+            return decoratedCoffee.getCostCents() + addOnCents();
+        }
+        
+        // This decorator's own contribution, used when the chain is fused
+        protected abstract String addOnName();
+        
+        protected abstract long addOnCents();
     }
     
     // Concrete Decorators
     private static final class MilkDecorator extends CoffeeDecorator {
+        private static final String NAME = "Milk";
+        private static final long CENTS = 50;
+        
         public MilkDecorator(Coffee coffee) {
             super(coffee);
         }
         
         @Override
         public String getDescription() {
-            return decoratedCoffee.getDescription() + ", Milk";
+            return decoratedCoffee.getDescription() + ", " + NAME;
         }
         
         @Override
         public double getCost() {
-            return decoratedCoffee.getCost() + 0.50;
+            return decoratedCoffee.getCost() + CENTS / 100.0;
+        }
+        
+        @Override
+        protected String addOnName() {
+            return NAME;
+        }
+        
+        @Override
+        protected long addOnCents() {
+            return CENTS;
         }
     }
     
     private static final class SugarDecorator extends CoffeeDecorator {
+        private static final String NAME = "Sugar";
+        private static final long CENTS = 20;
+        
         public SugarDecorator(Coffee coffee) {
             super(coffee);
         }
         
         @Override
         public String getDescription() {
-            return decoratedCoffee.getDescription() + ", Sugar";
+            return decoratedCoffee.getDescription() + ", " + NAME;
         }
         
         @Override
         public double getCost() {
-            return decoratedCoffee.getCost() + 0.20;
+            return decoratedCoffee.getCost() + CENTS / 100.0;
+        }
+        
+        @Override
+        protected String addOnName() {
+            return NAME;
+        }
+        
+        @Override
+        protected long addOnCents() {
+            return CENTS;
         }
     }
     
     private static final class WhipDecorator extends CoffeeDecorator {
+        private static final String NAME = "Whipped Cream";
+        private static final long CENTS = 75;
+        
         public WhipDecorator(Coffee coffee) {
             super(coffee);
         }
         
         @Override
         public String getDescription() {
-            return decoratedCoffee.getDescription() + ", Whipped Cream";
+            return decoratedCoffee.getDescription() + ", " + NAME;
         }
         
         @Override
         public double getCost() {
-            return decoratedCoffee.getCost() + 0.75;
+            return decoratedCoffee.getCost() + CENTS / 100.0;
+        }
+        
+        @Override
+        protected String addOnName() {
+            return NAME;
+        }
+        
+        @Override
+        protected long addOnCents() {
+            return CENTS;
+        }
+    }
+    
+    // Fused chain: one flat object with the exact cost in cents and a lazily built description
+    private static final class FusedCoffee implements Coffee {
+        private final String baseDescription;
+        private final String[] addOnNames;
+        private final long costCents;
+        private String description;
+        
+        private FusedCoffee(String baseDescription, String[] addOnNames, long costCents) {
+            this.baseDescription = baseDescription;
+            this.addOnNames = addOnNames;
+            this.costCents = costCents;
+        }
+        
+        /*
+         * Walks the decorator chain once, iteratively, summing each decorator's own
+         * cents. Decorators are immutable, so the result stays valid for as long as
+         * the base coffee does.
+         */
+        public static FusedCoffee fuse(Coffee coffee) {
+            List<CoffeeDecorator> decorators = new ArrayList<>();
+            while (coffee instanceof CoffeeDecorator decorator) {
+                decorators.add(decorator);
+                coffee = decorator.decoratedCoffee;
+            }
+            
+            long cents = coffee.getCostCents();
+            String[] names = new String[decorators.size()];
+            for (int i = 0; i < names.length; i++) {
+                CoffeeDecorator decorator = decorators.get(names.length - 1 - i);
+                names[i] = decorator.addOnName();
+                cents += decorator.addOnCents();
+            }
+            return new FusedCoffee(coffee.getDescription(), names, cents);
+        }
+        
+        // Racy single-check caching: every thread builds an equal, immutable String
+        @Override
+        public String getDescription() {
+            String result = description;
+            if (result == null) {
+                int length = baseDescription.length();
+                for (String name : addOnNames) {
+                    length += name.length() + 2;
+                }
+                StringBuilder builder = new StringBuilder(length).append(baseDescription);
+                for (String name : addOnNames) {
+                    builder.append(", ").append(name);
+                }
+                result = builder.toString();
+                description = result;
+            }
+            return result;
+        }
+        
+        @Override
+        public double getCost() {
+            return costCents / 100.0;
+        }
+        
+        @Override
+        public long getCostCents() {
+            return costCents;
         }
     }
     
+    private static String formatCents(long cents) {
+        return String.format("$%d.%02d", cents / 100, cents % 100);
+    }
+    
+    /*
+     * Column-oriented order batch: one base product id column plus one count
+     * column per add-on. Encoding checks the order total with exact int
+     * arithmetic, so the pricing kernels below can never overflow.
+     */
+    private static final class OrderBatch {
+        private final PriceCatalog catalog;
+        private int[] baseIds;
+        private final int[][] addOnCounts;
+        private int size;
+        
+        public OrderBatch(PriceCatalog catalog, int capacity) {
+            this.catalog = catalog;
+            this.baseIds = new int[capacity];
+            this.addOnCounts = new int[catalog.addOnCount()][capacity];
+        }
+        
+        public void add(Coffee coffee) {
+            int[] counts = new int[addOnCounts.length];
+            while (coffee instanceof CoffeeDecorator decorator) {
+                counts[catalog.addOnId(decorator)]++;
+                coffee = decorator.decoratedCoffee;
+            }
+            add(catalog.baseId(coffee), counts);
+        }
+        
+        public void add(int baseId, int... counts) {
+            if (counts.length != addOnCounts.length) {
+                throw new IllegalArgumentException("Expected " + addOnCounts.length + " add-on counts");
+            }
+            int cents = catalog.basePrices[baseId];
+            for (int a = 0; a < counts.length; a++) {
+                cents = Math.addExact(cents, Math.multiplyExact(counts[a], catalog.addOnPrices[a]));
+            }
+            if (size == baseIds.length) {
+                int capacity = Math.max(16, size * 2);
+                baseIds = Arrays.copyOf(baseIds, capacity);
+                for (int a = 0; a < addOnCounts.length; a++) {
+                    addOnCounts[a] = Arrays.copyOf(addOnCounts[a], capacity);
+                }
+            }
+            baseIds[size] = baseId;
+            for (int a = 0; a < counts.length; a++) {
+                addOnCounts[a][size] = counts[a];
+            }
+            size++;
+        }
+        
+        public int size() {
+            return size;
+        }
+    }
+    
+    // Prices in cents, indexed by base product id and add-on id
+    private static final class PriceCatalog {
+        private final List<Class<? extends Coffee>> baseTypes = new ArrayList<>();
+        private final List<Class<? extends CoffeeDecorator>> addOnTypes = new ArrayList<>();
+        private int[] basePrices = new int[0];
+        private int[] addOnPrices = new int[0];
+        
+        public int registerBase(Coffee sample) {
+            baseTypes.add(sample.getClass());
+            basePrices = append(basePrices, Math.toIntExact(sample.getCostCents()));
+            return baseTypes.size() - 1;
+        }
+        
+        public int registerAddOn(CoffeeDecorator sample) {
+            addOnTypes.add(sample.getClass());
+            addOnPrices = append(addOnPrices, Math.toIntExact(sample.addOnCents()));
+            return addOnTypes.size() - 1;
+        }
+        
+        public int baseId(Coffee coffee) {
+            return indexOf(baseTypes, coffee.getClass());
+        }
+        
+        public int addOnId(CoffeeDecorator decorator) {
+            return indexOf(addOnTypes, decorator.getClass());
+        }
+        
+        public int addOnCount() {
+            return addOnPrices.length;
+        }
+        
+        private static int indexOf(List<? extends Class<?>> types, Class<?> type) {
+            int index = types.indexOf(type);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unregistered product: " + type.getSimpleName());
+            }
+            return index;
+        }
+        
+        private static int[] append(int[] prices, int price) {
+            int[] result = Arrays.copyOf(prices, prices.length + 1);
+            result[prices.length] = price;
+            return result;
+        }
+    }
+    
+    // Batch pricing: totals are computed column by column, vectorized when the module is present
+    private static final class BatchPricer {
+        private final PriceCatalog catalog;
+        private final boolean vectorized;
+        
+        public BatchPricer(PriceCatalog catalog, boolean preferVector) {
+            this.catalog = catalog;
+            this.vectorized = preferVector && VectorSupport.isAvailable();
+        }
+        
+        public boolean isVectorized() {
+            return vectorized;
+        }
+        
+        public int[] price(OrderBatch batch) {
+            int[] totals = new int[batch.size()];
+            if (vectorized) {
+                VectorPricingKernel.price(catalog.basePrices, catalog.addOnPrices, 
+                        batch.baseIds, batch.addOnCounts, totals);
+            } else {
+                scalarPrice(catalog.basePrices, catalog.addOnPrices, 
+                        batch.baseIds, batch.addOnCounts, totals);
+            }
+            return totals;
+        }
+        
+        private static void scalarPrice(int[] basePrices, int[] addOnPrices, 
+                int[] baseIds, int[][] addOnCounts, int[] totals) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] = basePrices[baseIds[i]];
+            }
+            for (int a = 0; a < addOnPrices.length; a++) {
+                int[] counts = addOnCounts[a];
+                int price = addOnPrices[a];
+                for (int i = 0; i < totals.length; i++) {
+                    totals[i] += counts[i] * price;
+                }
+            }
+        }
+    }
+    
+    // Only loaded once VectorSupport has confirmed jdk.incubator.vector is resolved
+    private static final class VectorPricingKernel {
+        private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+        
+        static void price(int[] basePrices, int[] addOnPrices, 
+                int[] baseIds, int[][] addOnCounts, int[] totals) {
+            int n = totals.length;
+            int bound = SPECIES.loopBound(n);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length()) {
+                IntVector total = IntVector.fromArray(SPECIES, basePrices, 0, baseIds, i);
+                for (int a = 0; a < addOnPrices.length; a++) {
+                    total = IntVector.fromArray(SPECIES, addOnCounts[a], i)
+                            .mul(addOnPrices[a])
+                            .add(total);
+                }
+                total.intoArray(totals, i);
+            }
+            for (; i < n; i++) {
+                int total = basePrices[baseIds[i]];
+                for (int a = 0; a < addOnPrices.length; a++) {
+                    total += addOnCounts[a][i] * addOnPrices[a];
+                }
+                totals[i] = total;
+            }
+        }
+    }
+    
+    private static Coffee randomOrder(Random random) {
+        Coffee coffee = new SimpleCoffee();
+        for (int depth = random.nextInt(8); depth > 0; depth--) {
+            coffee = switch (random.nextInt(3)) {
+                case 0 -> new MilkDecorator(coffee);
+                case 1 -> new SugarDecorator(coffee);
+                default -> new WhipDecorator(coffee);
+            };
+        }
+        return coffee;
+    }
+    
     @Override
     public void demonstrate() {
         Logger.logPattern("Decorator Pattern");
@@ -111,5 +424,85 @@ public final class DecoratorPattern implements Demonstrable {
         
         coffee = new WhipDecorator(coffee);
         Logger.log(coffee.getDescription() + " - $" + coffee.getCost());
+        
+        Logger.logSection("Fused Chain (exact cents)");
+        Coffee fused = FusedCoffee.fuse(coffee);
+        Logger.log(fused.getDescription() + " - " + formatCents(fused.getCostCents()));
+        
+        Logger.logSection("Deep Chain: decorated vs fused");
+        Coffee deep = new SimpleCoffee();
+        for (int i = 0; i < 300; i++) {
+            deep = i % 3 == 0 ? new MilkDecorator(deep) 
+                    : i % 3 == 1 ? new SugarDecorator(deep) : new WhipDecorator(deep);
+        }
+        Coffee deepFused = FusedCoffee.fuse(deep);
+        int queries = 2_000;
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            checksum += deep.getCostCents() + deep.getDescription().length();
+        }
+        long decoratedMicros = (System.nanoTime() - start) / 1_000;
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            checksum -= deepFused.getCostCents() + deepFused.getDescription().length();
+        }
+        long fusedMicros = (System.nanoTime() - start) / 1_000;
+        boolean matches = checksum == 0 && deep.getCostCents() == deepFused.getCostCents()
+                && deep.getDescription().equals(deepFused.getDescription());
+        Logger.log("Depth 300, " + queries + " queries, results match: " + matches);
+        Logger.log("Decorated: " + decoratedMicros + "us, fused: " + fusedMicros + "us");
+        
+        Logger.logSection("Batch Pricing");
+        PriceCatalog catalog = new PriceCatalog();
+        catalog.registerBase(new SimpleCoffee());
+        Coffee base = new SimpleCoffee();
+        catalog.registerAddOn(new MilkDecorator(base));
+        catalog.registerAddOn(new SugarDecorator(base));
+        catalog.registerAddOn(new WhipDecorator(base));
+        
+        int orderCount = 200_000;
+        Random random = new Random(42);
+        Coffee[] orders = new Coffee[orderCount];
+        OrderBatch batch = new OrderBatch(catalog, orderCount);
+        for (int i = 0; i < orderCount; i++) {
+            orders[i] = randomOrder(random);
+            batch.add(orders[i]);
+        }
+        
+        long[] objectTotals = new long[orderCount];
+        BatchPricer scalar = new BatchPricer(catalog, false);
+        BatchPricer vector = new BatchPricer(catalog, true);
+        int[] scalarTotals = null;
+        int[] vectorTotals = null;
+        long objectMicros = Long.MAX_VALUE;
+        long scalarMicros = Long.MAX_VALUE;
+        long vectorMicros = Long.MAX_VALUE;
+        // Best of several rounds, so JIT warm-up is not billed to any one path
+        for (int round = 0; round < 10; round++) {
+            start = System.nanoTime();
+            for (int i = 0; i < orderCount; i++) {
+                objectTotals[i] = orders[i].getCostCents();
+            }
+            objectMicros = Math.min(objectMicros, (System.nanoTime() - start) / 1_000);
+            
+            start = System.nanoTime();
+            scalarTotals = scalar.price(batch);
+            scalarMicros = Math.min(scalarMicros, (System.nanoTime() - start) / 1_000);
+            
+            start = System.nanoTime();
+            vectorTotals = vector.price(batch);
+            vectorMicros = Math.min(vectorMicros, (System.nanoTime() - start) / 1_000);
+        }
+        
+        boolean exact = true;
+        for (int i = 0; i < orderCount; i++) {
+            exact &= objectTotals[i] == scalarTotals[i] && objectTotals[i] == vectorTotals[i];
+        }
+        Logger.log(orderCount + " orders, totals match object graph: " + exact);
+        Logger.log("Object graph: " + objectMicros + "us");
+        Logger.log("Columnar scalar: " + scalarMicros + "us");
+        Logger.log((vector.isVectorized() ? "Vector API: " : "Vector API unavailable, scalar: ") 
+                + vectorMicros + "us");
     }
 }
@@ -2,6 +2,26 @@ package com.patterns.structural;
 
 import com.patterns.common.Demonstrable;
 import com.patterns.common.Logger;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Facade Pattern - Provides a unified interface to a set of interfaces
@@ -11,30 +31,417 @@ public final class FacadePattern implements Demonstrable {
     
     // Subsystem classes
     private static final class CPU {
+        private final boolean verbose;
+        
+        public CPU() {
+            this(true);
+        }
+        
+        public CPU(boolean verbose) {
+            this.verbose = verbose;
+        }
+        
         public void freeze() {
-            Logger.log("CPU: Freezing...");
+            if (verbose) {
+                Logger.log("CPU: Freezing...");
+            }
         }
         
         public void jump(long position) {
-            Logger.log("CPU: Jumping to position " + position);
+            if (verbose) {
+                Logger.log("CPU: Jumping to position " + position);
+            }
         }
         
         public void execute() {
-            Logger.log("CPU: Executing...");
+            if (verbose) {
+                Logger.log("CPU: Executing...");
+            }
         }
     }
     
     private static final class Memory {
+        private final Map<Long, ByteBuffer> regions = new ConcurrentHashMap<>();
+        private final boolean verbose;
+        
+        public Memory() {
+            this(true);
+        }
+        
+        public Memory(boolean verbose) {
+            this.verbose = verbose;
+        }
+        
         public void load(long position, byte[] data) {
             Logger.log("Memory: Loading data at position " + position);
         }
+        
+        // Takes ownership of the buffer instead of copying it; returns the buffer it
+        // displaced at that position, if any, so the caller can recycle it
+        public ByteBuffer load(long position, ByteBuffer data) {
+            if (verbose) {
+                Logger.log("Memory: Mapping " + data.remaining() + " bytes at position " + position);
+            }
+            return regions.put(position, data);
+        }
+        
+        public List<ByteBuffer> unloadAll() {
+            List<ByteBuffer> released = new ArrayList<>(regions.values());
+            regions.clear();
+            return released;
+        }
     }
     
     private static final class HardDrive {
+        private static final int SECTOR_SIZE = 512;
+        
+        private final FileChannel image;
+        private final BlockCache cache;
+        private final boolean verbose;
+        
+        public HardDrive() {
+            this(null, null, true);
+        }
+        
+        public HardDrive(FileChannel image) {
+            this(image, null, true);
+        }
+        
+        public HardDrive(FileChannel image, boolean verbose) {
+            this(image, null, verbose);
+        }
+        
+        public HardDrive(BlockCache cache) {
+            this(null, cache, true);
+        }
+        
+        private HardDrive(FileChannel image, BlockCache cache, boolean verbose) {
+            this.image = image;
+            this.cache = cache;
+            this.verbose = verbose;
+        }
+        
         public byte[] read(long lba, int size) {
             Logger.log("HardDrive: Reading " + size + " bytes from sector " + lba);
             return new byte[size];
         }
+        
+        // Fills the buffer from the backing image; positional reads are safe across threads
+        public ByteBuffer read(long lba, ByteBuffer target) {
+            if (verbose) {
+                Logger.log("HardDrive: Reading " + target.remaining() + " bytes from sector " + lba);
+            }
+            if (cache != null) {
+                cache.read(lba * SECTOR_SIZE, target);
+            } else if (image != null) {
+                readFully(image, target, lba * SECTOR_SIZE);
+            } else {
+                throw new IllegalStateException("Hard drive has no backing image");
+            }
+            return target.flip();
+        }
+    }
+    
+    // Reads until the buffer is full or the end of the image is reached
+    private static int readFully(FileChannel channel, ByteBuffer target, long position) {
+        int total = 0;
+        try {
+            while (target.hasRemaining()) {
+                int read = channel.read(target, position + total);
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return total;
+    }
+    
+    private record CacheStats(long hits, long misses, long readAheadIssued, 
+                              long readAheadUsed, long readAheadWasted) {
+        double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+        
+        double missRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) misses / total;
+        }
+        
+        // Share of read-ahead blocks that a later demand read actually used
+        double readAheadEffectiveness() {
+            return readAheadIssued == 0 ? 0 : (double) readAheadUsed / readAheadIssued;
+        }
+    }
+    
+    /*
+     * Block cache over a disk image. Blocks live in fixed frames carved out of
+     * direct-memory slabs, and the frame count follows from the byte budget.
+     * Eviction uses CLOCK: a frame that was used since the hand last passed gets
+     * a second chance. Metadata changes happen under the cache lock. Disk I/O
+     * does not: a frame being filled carries a future that other readers of
+     * the same block wait on. Two sequential reads in a row trigger an
+     * asynchronous read-ahead of the blocks that follow.
+     */
+    private static final class BlockCache {
+        private static final int SLAB_SIZE = 64 * 1024 * 1024;
+        private static final int SEQUENTIAL_STREAK = 2;
+        
+        private final FileChannel image;
+        private final int blockSize;
+        private final int readAheadBlocks;
+        private final Executor readAheadExecutor;
+        private final ByteBuffer[] frames;
+        private final long[] frameBlock;
+        private final int[] frameLength;
+        private final boolean[] referenced;
+        private final boolean[] prefetched;
+        private final CompletableFuture<?>[] loading;
+        private final Map<Long, Integer> index = new HashMap<>();
+        private int clockHand;
+        private long nextSequentialBlock = -1;
+        private long readAheadLimit;
+        private int sequentialStreak;
+        private long hits;
+        private long misses;
+        private long readAheadIssued;
+        private long readAheadUsed;
+        private long readAheadWasted;
+        
+        public BlockCache(FileChannel image, long capacityBytes, int blockSize, 
+                          int readAheadBlocks, Executor readAheadExecutor) {
+            if (blockSize <= 0 || blockSize > SLAB_SIZE || SLAB_SIZE % blockSize != 0) {
+                throw new IllegalArgumentException("Block size must divide the slab size");
+            }
+            int frameCount = Math.toIntExact(capacityBytes / blockSize);
+            if (frameCount == 0) {
+                throw new IllegalArgumentException("Capacity is smaller than one block");
+            }
+            this.image = image;
+            this.blockSize = blockSize;
+            this.readAheadBlocks = readAheadBlocks;
+            this.readAheadExecutor = readAheadExecutor;
+            this.frames = new ByteBuffer[frameCount];
+            this.frameBlock = new long[frameCount];
+            this.frameLength = new int[frameCount];
+            this.referenced = new boolean[frameCount];
+            this.prefetched = new boolean[frameCount];
+            this.loading = new CompletableFuture<?>[frameCount];
+            Arrays.fill(frameBlock, -1);
+            
+            int framesPerSlab = SLAB_SIZE / blockSize;
+            ByteBuffer slab = null;
+            for (int f = 0; f < frameCount; f++) {
+                int slot = f % framesPerSlab;
+                if (slot == 0) {
+                    int remaining = Math.min(framesPerSlab, frameCount - f);
+                    slab = ByteBuffer.allocateDirect(remaining * blockSize);
+                }
+                frames[f] = slab.slice(slot * blockSize, blockSize);
+            }
+        }
+        
+        // Copies bytes starting at the image offset into the target; stops early at end of image
+        public void read(long offset, ByteBuffer target) {
+            long firstBlock = offset / blockSize;
+            while (target.hasRemaining()) {
+                long block = offset / blockSize;
+                int copied = copyFromBlock(block, (int) (offset % blockSize), target);
+                if (copied == 0) {
+                    break;
+                }
+                offset += copied;
+            }
+            trackSequentialAccess(firstBlock, (offset - 1) / blockSize);
+        }
+        
+        private int copyFromBlock(long block, int within, ByteBuffer target) {
+            boolean counted = false;
+            while (true) {
+                CompletableFuture<?> pending;
+                int frame;
+                synchronized (this) {
+                    Integer cached = index.get(block);
+                    if (cached != null && loading[cached] == null) {
+                        frame = cached;
+                        if (!counted) {
+                            hits++;
+                        }
+                        referenced[frame] = true;
+                        if (prefetched[frame]) {
+                            prefetched[frame] = false;
+                            readAheadUsed++;
+                        }
+                        int length = Math.max(0, Math.min(target.remaining(), frameLength[frame] - within));
+                        target.put(target.position(), frames[frame], within, length);
+                        target.position(target.position() + length);
+                        return length;
+                    }
+                    if (!counted) {
+                        misses++;
+                        counted = true;
+                    }
+                    if (cached != null) {
+                        pending = loading[cached];
+                        frame = cached;
+                    } else {
+                        pending = null;
+                        frame = reserve(block, false);
+                    }
+                }
+                if (pending != null) {
+                    pending.join();
+                } else if (frame >= 0) {
+                    fill(frame, block);
+                } else {
+                    return readUncached(block, within, target);
+                }
+            }
+        }
+        
+        // Every frame is mid-load; serve this read straight from the image
+        private int readUncached(long block, int within, ByteBuffer target) {
+            int length = Math.min(target.remaining(), blockSize - within);
+            ByteBuffer window = target.slice(target.position(), length);
+            int read = readFully(image, window, block * blockSize + within);
+            target.position(target.position() + read);
+            return read;
+        }
+        
+        // Claims a frame for the block under the lock; returns -1 if none can be evicted
+        private int reserve(long block, boolean readAhead) {
+            for (int scanned = 0; scanned < frames.length * 2; scanned++) {
+                int frame = clockHand;
+                clockHand = (clockHand + 1) % frames.length;
+                if (loading[frame] != null) {
+                    continue;
+                }
+                if (referenced[frame]) {
+                    referenced[frame] = false;
+                    continue;
+                }
+                if (frameBlock[frame] >= 0) {
+                    index.remove(frameBlock[frame]);
+                    if (prefetched[frame]) {
+                        readAheadWasted++;
+                    }
+                }
+                frameBlock[frame] = block;
+                prefetched[frame] = readAhead;
+                loading[frame] = new CompletableFuture<Void>();
+                index.put(block, frame);
+                return frame;
+            }
+            return -1;
+        }
+        
+        private void fill(int frame, long block) {
+            ByteBuffer buffer = frames[frame].duplicate().clear();
+            int length = 0;
+            RuntimeException failure = null;
+            try {
+                length = readFully(image, buffer, block * blockSize);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            CompletableFuture<?> done;
+            synchronized (this) {
+                done = loading[frame];
+                loading[frame] = null;
+                frameLength[frame] = length;
+                if (failure != null) {
+                    index.remove(block);
+                    frameBlock[frame] = -1;
+                    prefetched[frame] = false;
+                }
+            }
+            done.complete(null);
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        
+        // Schedules only the part of the read-ahead window not already requested
+        private void trackSequentialAccess(long firstBlock, long lastBlock) {
+            long from;
+            long to;
+            synchronized (this) {
+                // Another read inside the last block read neither extends nor breaks the streak
+                boolean sameBlock = firstBlock == nextSequentialBlock - 1;
+                if (firstBlock == nextSequentialBlock) {
+                    sequentialStreak++;
+                } else if (!sameBlock) {
+                    sequentialStreak = 0;
+                    readAheadLimit = 0;
+                }
+                nextSequentialBlock = lastBlock + 1;
+                from = Math.max(nextSequentialBlock, readAheadLimit);
+                to = nextSequentialBlock + readAheadBlocks;
+                if (sequentialStreak < SEQUENTIAL_STREAK || from >= to) {
+                    return;
+                }
+                readAheadLimit = to;
+            }
+            readAheadExecutor.execute(() -> readAhead(from, to));
+        }
+        
+        private void readAhead(long from, long to) {
+            for (long block = from; block < to; block++) {
+                int frame;
+                synchronized (this) {
+                    boolean passed = block < nextSequentialBlock;
+                    if (passed || block * blockSize >= imageSize() || index.containsKey(block)) {
+                        continue;
+                    }
+                    frame = reserve(block, true);
+                    if (frame < 0) {
+                        return;
+                    }
+                    readAheadIssued++;
+                }
+                fill(frame, block);
+            }
+        }
+        
+        private long imageSize() {
+            try {
+                return image.size();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        public synchronized CacheStats stats() {
+            return new CacheStats(hits, misses, readAheadIssued, readAheadUsed, readAheadWasted);
+        }
+    }
+    
+    // Recycles direct buffers so boot reads never allocate off-heap memory twice
+    private static final class DirectBufferPool {
+        private final int bufferSize;
+        private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        
+        public DirectBufferPool(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+        
+        public ByteBuffer acquire(int size) {
+            if (size > bufferSize) {
+                throw new IllegalArgumentException("Requested " + size + " bytes, pool buffers hold " + bufferSize);
+            }
+            ByteBuffer buffer = free.poll();
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(bufferSize);
+            }
+            return buffer.clear().limit(size);
+        }
+        
+        public void release(ByteBuffer buffer) {
+            free.offer(buffer);
+        }
     }
     
     // Facade
@@ -59,11 +466,228 @@ public final class FacadePattern implements Demonstrable {
         }
     }
     
+    // Boot as a dependency graph: each stage starts once all of its dependencies completed
+    private static final class BootGraph {
+        private final Map<String, Stage> stages = new LinkedHashMap<>();
+        
+        private record Stage(Runnable action, List<String> dependencies) {}
+        
+        // Dependencies must already be declared, which keeps the graph acyclic
+        public BootGraph stage(String name, Runnable action, String... dependencies) {
+            for (String dependency : dependencies) {
+                if (!stages.containsKey(dependency)) {
+                    throw new IllegalArgumentException("Unknown dependency '" + dependency + "' for " + name);
+                }
+            }
+            if (stages.putIfAbsent(name, new Stage(action, List.of(dependencies))) != null) {
+                throw new IllegalArgumentException("Duplicate stage: " + name);
+            }
+            return this;
+        }
+        
+        public void run(Executor executor) {
+            Map<String, CompletableFuture<Void>> done = new LinkedHashMap<>();
+            stages.forEach((name, stage) -> {
+                CompletableFuture<?>[] prerequisites = stage.dependencies().stream()
+                        .map(done::get)
+                        .toArray(CompletableFuture<?>[]::new);
+                done.put(name, CompletableFuture.allOf(prerequisites).thenRunAsync(stage.action(), executor));
+            });
+            CompletableFuture.allOf(done.values().toArray(CompletableFuture<?>[]::new)).join();
+        }
+    }
+    
+    // Facade over the same subsystems, booting through a stage graph
+    private static final class PipelinedComputerFacade implements AutoCloseable {
+        private static final long BOOT_SECTOR_LBA = 0;
+        private static final int BOOT_SECTOR_SIZE = 512;
+        private static final long KERNEL_LBA = 1;
+        private static final long KERNEL_ADDRESS = 0x10_0000;
+        
+        private final CPU cpu;
+        private final Memory memory;
+        private final HardDrive hardDrive;
+        private final DirectBufferPool pool;
+        private final int kernelSize;
+        private final boolean verbose;
+        
+        public PipelinedComputerFacade(HardDrive hardDrive, int kernelSize) {
+            this(hardDrive, kernelSize, true);
+        }
+        
+        public PipelinedComputerFacade(HardDrive hardDrive, int kernelSize, boolean verbose) {
+            this.cpu = new CPU(verbose);
+            this.memory = new Memory(verbose);
+            this.hardDrive = hardDrive;
+            this.pool = new DirectBufferPool(Math.max(BOOT_SECTOR_SIZE, kernelSize));
+            this.kernelSize = kernelSize;
+            this.verbose = verbose;
+        }
+        
+        // freeze and both disk reads are independent; loads wait for the CPU freeze.
+        // Booting again without shutdown() replaces the loaded regions, and the
+        // buffers they held go back to the pool.
+        public void start(Executor executor) {
+            if (verbose) {
+                Logger.log("Computer: Starting (staged)...");
+            }
+            AtomicReference<ByteBuffer> bootSector = new AtomicReference<>();
+            AtomicReference<ByteBuffer> kernel = new AtomicReference<>();
+            try {
+                new BootGraph()
+                    .stage("freeze", cpu::freeze)
+                    .stage("read-boot", () -> bootSector.set(read(BOOT_SECTOR_LBA, BOOT_SECTOR_SIZE)))
+                    .stage("read-kernel", () -> kernel.set(read(KERNEL_LBA, kernelSize)))
+                    .stage("load-boot", () -> releaseIfPresent(memory.load(0, bootSector.getAndSet(null))), 
+                            "freeze", "read-boot")
+                    .stage("load-kernel", 
+                            () -> releaseIfPresent(memory.load(KERNEL_ADDRESS, kernel.getAndSet(null))), 
+                            "freeze", "read-kernel")
+                    .stage("jump", () -> cpu.jump(0), "load-boot", "load-kernel")
+                    .stage("execute", cpu::execute, "jump")
+                    .run(executor);
+            } finally {
+                // A buffer still held here was read, but a failed stage kept it out of memory
+                releaseIfPresent(bootSector.getAndSet(null));
+                releaseIfPresent(kernel.getAndSet(null));
+            }
+            if (verbose) {
+                Logger.log("Computer: Started successfully!");
+            }
+        }
+        
+        // The pooled buffer goes back to the pool if the read fails
+        private ByteBuffer read(long lba, int size) {
+            ByteBuffer buffer = pool.acquire(size);
+            boolean filled = false;
+            try {
+                ByteBuffer result = hardDrive.read(lba, buffer);
+                filled = true;
+                return result;
+            } finally {
+                if (!filled) {
+                    pool.release(buffer);
+                }
+            }
+        }
+        
+        private void releaseIfPresent(ByteBuffer buffer) {
+            if (buffer != null) {
+                pool.release(buffer);
+            }
+        }
+        
+        public void shutdown() {
+            memory.unloadAll().forEach(pool::release);
+        }
+        
+        @Override
+        public void close() {
+            shutdown();
+        }
+    }
+    
+    private static Path createDiskImage(int size) throws IOException {
+        Path path = Files.createTempFile("facade-disk", ".img");
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+        Files.write(path, data);
+        return path;
+    }
+    
+    // Both modes are warmed up first, then each round swaps which one goes first so
+    // neither always runs with the page cache and JIT state the other left behind
+    private static long[][] bootLatencies(PipelinedComputerFacade facade, Executor concurrent, 
+                                          int warmups, int rounds) {
+        Executor[] modes = {Runnable::run, concurrent};
+        for (int i = 0; i < warmups; i++) {
+            for (Executor mode : modes) {
+                facade.start(mode);
+                facade.shutdown();
+            }
+        }
+        long[][] micros = new long[modes.length][rounds];
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < modes.length; i++) {
+                int mode = (round + i) % modes.length;
+                long start = System.nanoTime();
+                facade.start(modes[mode]);
+                micros[mode][round] = (System.nanoTime() - start) / 1_000;
+                facade.shutdown();
+            }
+        }
+        for (long[] samples : micros) {
+            Arrays.sort(samples);
+        }
+        return micros;
+    }
+    
     @Override
     public void demonstrate() {
         Logger.logPattern("Facade Pattern");
         
         ComputerFacade computer = new ComputerFacade();
         computer.start();
+        
+        int kernelSize = 256 * 1024;
+        Path imagePath = null;
+        try {
+            imagePath = createDiskImage(1024 * 1024);
+            try (FileChannel image = FileChannel.open(imagePath, StandardOpenOption.READ);
+                 PipelinedComputerFacade staged = new PipelinedComputerFacade(new HardDrive(image), kernelSize);
+                 ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+                
+                Logger.logSection("Staged Boot (sequential, caller thread)");
+                staged.start(Runnable::run);
+                staged.shutdown();
+                
+                Logger.logSection("Staged Boot (concurrent, virtual threads)");
+                staged.start(virtualThreads);
+                staged.shutdown();
+                
+                Logger.logSection("Boot Latency (warmed up, alternating order, median of 200)");
+                try (PipelinedComputerFacade quiet = 
+                        new PipelinedComputerFacade(new HardDrive(image, false), kernelSize, false)) {
+                    long[][] micros = bootLatencies(quiet, virtualThreads, 500, 200);
+                    Logger.log("Boot latency: sequential " + micros[0][micros[0].length / 2] + "us, concurrent " 
+                            + micros[1][micros[1].length / 2] + "us");
+                }
+                
+                Logger.logSection("Block Cache (256KB, 4KB blocks, CLOCK)");
+                BlockCache cache = new BlockCache(image, 256 * 1024, 4096, 8, virtualThreads);
+                HardDrive cachedDrive = new HardDrive(cache);
+                ByteBuffer bootSector = ByteBuffer.allocateDirect(512);
+                for (int boot = 1; boot <= 3; boot++) {
+                    cachedDrive.read(0, bootSector.clear());
+                    cachedDrive.read(1, bootSector.clear());
+                }
+                CacheStats bootStats = cache.stats();
+                Logger.log(String.format("Repeated boots: hit ratio %.2f, miss ratio %.2f, " 
+                        + "read-ahead issued %d", bootStats.hitRatio(), bootStats.missRatio(), 
+                        bootStats.readAheadIssued()));
+                
+                ByteBuffer chunk = ByteBuffer.allocateDirect(16 * 1024);
+                for (long offset = 0; offset < 1024 * 1024; offset += chunk.capacity()) {
+                    cache.read(offset, chunk.clear());
+                }
+                CacheStats scanStats = cache.stats();
+                Logger.log(String.format("After sequential scan: hit ratio %.2f, read-ahead issued %d, " 
+                        + "used %d, wasted %d (effectiveness %.2f)", scanStats.hitRatio(), 
+                        scanStats.readAheadIssued(), scanStats.readAheadUsed(), 
+                        scanStats.readAheadWasted(), scanStats.readAheadEffectiveness()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (imagePath != null) {
+                try {
+                    Files.deleteIfExists(imagePath);
+                } catch (IOException e) {
+                    Logger.log("Could not delete disk image: " + e.getMessage());
+                }
+            }
+        }
     }
 }
@@ -2,8 +2,22 @@ package com.patterns.structural;
 
 import com.patterns.common.Demonstrable;
 import com.patterns.common.Logger;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
  * Flyweight Pattern - Uses sharing to support large numbers of
@@ -68,6 +82,424 @@ public final class FlyweightPattern implements Demonstrable {
         }
     }
     
+    // Composite flyweight key; a per-thread mutable instance serves as the lookup probe
+    private static final class TreeKey {
+        private String name;
+        private String color;
+        private String texture;
+        private int hash;
+        
+        private TreeKey set(String name, String color, String texture) {
+            this.name = name;
+            this.color = color;
+            this.texture = texture;
+            this.hash = (name.hashCode() * 31 + color.hashCode()) * 31 + texture.hashCode();
+            return this;
+        }
+        
+        private TreeKey copy() {
+            return new TreeKey().set(name, color, texture);
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof TreeKey key && hash == key.hash 
+                && name.equals(key.name) && color.equals(key.color) && texture.equals(key.texture);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+    
+    /*
+     * Thread-safe flyweight factory. Hits run a lock-free ConcurrentHashMap.get
+     * with a reusable thread-local probe, so they allocate nothing. Only a miss
+     * copies the probe into an immutable stored key, and computeIfAbsent makes
+     * sure each type is created once, even when threads race on the same key.
+     */
+    private static final class ConcurrentTreeFactory {
+        private final Map<TreeKey, TreeType> treeTypes = new ConcurrentHashMap<>();
+        private final ThreadLocal<TreeKey> probe = ThreadLocal.withInitial(TreeKey::new);
+        private final AtomicInteger created = new AtomicInteger();
+        
+        public TreeType getTreeType(String name, String color, String texture) {
+            TreeKey key = probe.get().set(name, color, texture);
+            TreeType type = treeTypes.get(key);
+            if (type != null) {
+                return type;
+            }
+            return treeTypes.computeIfAbsent(key.copy(), k -> {
+                created.incrementAndGet();
+                return new ConcreteTreeType(name, color, texture);
+            });
+        }
+        
+        public int getTypeCount() {
+            return treeTypes.size();
+        }
+        
+        public int getCreatedCount() {
+            return created.get();
+        }
+    }
+    
+    private static final String[][] BENCHMARK_TYPES = {
+        {"Oak", "Green", "Rough"}, {"Pine", "Dark Green", "Smooth"}, {"Birch", "White", "Smooth"},
+        {"Maple", "Red", "Rough"}, {"Willow", "Light Green", "Soft"}, {"Cedar", "Brown", "Rough"},
+        {"Palm", "Yellow Green", "Fibrous"}, {"Spruce", "Blue Green", "Needled"}
+    };
+    
+    // Every thread waits at the gate, then performs its share of lookups
+    private static long measureLookups(ConcurrentTreeFactory factory, int threads, int lookupsPerThread) 
+            throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicLong found = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long hits = 0;
+                for (int i = 0; i < lookupsPerThread; i++) {
+                    String[] type = BENCHMARK_TYPES[(i + offset) % BENCHMARK_TYPES.length];
+                    if (factory.getTreeType(type[0], type[1], type[2]) != null) {
+                        hits++;
+                    }
+                }
+                found.addAndGet(hits);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long start = System.nanoTime();
+        gate.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found.get() != (long) threads * lookupsPerThread) {
+            throw new IllegalStateException("Lookup returned no flyweight");
+        }
+        return elapsed;
+    }
+    
+    private record Viewport(int minX, int minY, int maxX, int maxY) {
+        boolean contains(int x, int y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+    }
+    
+    private interface TreeVisitor {
+        void visit(int x, int y, TreeType type);
+    }
+    
+    /*
+     * Struct-of-arrays forest: coordinates and flyweight ids live in primitive
+     * columns, 10 bytes per tree. The uniform-grid index stores no per-tree
+     * data. buildIndex() reorders the columns by grid cell and keeps only the
+     * start offset of each cell. Trees added later go to an unindexed tail,
+     * which queries scan linearly until the next build.
+     */
+    private static final class Forest {
+        private static final int MIN_CHUNK = 64 * 1024;
+        
+        private final List<TreeType> types = new ArrayList<>();
+        private final int cellSize;
+        private final int columns;
+        private final int rows;
+        private int[] x = new int[0];
+        private int[] y = new int[0];
+        private short[] typeId = new short[0];
+        private int size;
+        private int[] cellStart = new int[0];
+        private int indexedCount;
+        
+        public Forest(int worldWidth, int worldHeight, int cellSize) {
+            this.cellSize = cellSize;
+            this.columns = (worldWidth + cellSize - 1) / cellSize;
+            this.rows = (worldHeight + cellSize - 1) / cellSize;
+        }
+        
+        public short addType(TreeType type) {
+            if (types.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many tree types");
+            }
+            types.add(type);
+            return (short) (types.size() - 1);
+        }
+        
+        public void plant(int treeX, int treeY, short type) {
+            ensureCapacity(size + 1);
+            x[size] = treeX;
+            y[size] = treeY;
+            typeId[size] = type;
+            size++;
+        }
+        
+        public void plantAll(int[] xs, int[] ys, short[] typeIds, int offset, int length) {
+            ensureCapacity(size + length);
+            System.arraycopy(xs, offset, x, size, length);
+            System.arraycopy(ys, offset, y, size, length);
+            System.arraycopy(typeIds, offset, typeId, size, length);
+            size += length;
+        }
+        
+        private void ensureCapacity(int required) {
+            if (required > x.length) {
+                int capacity = Math.max(required, x.length + (x.length >> 1) + 16);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                typeId = Arrays.copyOf(typeId, capacity);
+            }
+        }
+        
+        private int cellOf(int treeX, int treeY) {
+            int column = Math.min(columns - 1, Math.max(0, treeX / cellSize));
+            int row = Math.min(rows - 1, Math.max(0, treeY / cellSize));
+            return row * columns + column;
+        }
+        
+        // Parallel counting sort by cell: per-chunk histograms, prefix sums, stable scatter
+        public void buildIndex() {
+            int cells = columns * rows;
+            int chunks = Math.max(1, Math.min(size / MIN_CHUNK, ForkJoinPool.getCommonPoolParallelism() * 4));
+            int chunkSize = (size + chunks - 1) / Math.max(1, chunks);
+            int[][] counts = new int[chunks][cells];
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int[] histogram = counts[chunk];
+                for (int i = chunk * chunkSize, end = Math.min(size, i + chunkSize); i < end; i++) {
+                    histogram[cellOf(x[i], y[i])]++;
+                }
+            });
+            
+            int[] starts = new int[cells + 1];
+            int position = 0;
+            for (int cell = 0; cell < cells; cell++) {
+                starts[cell] = position;
+                for (int chunk = 0; chunk < chunks; chunk++) {
+                    int count = counts[chunk][cell];
+                    counts[chunk][cell] = position;
+                    position += count;
+                }
+            }
+            starts[cells] = position;
+            
+            int[] sortedX = new int[x.length];
+            int[] sortedY = new int[y.length];
+            short[] sortedType = new short[typeId.length];
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int[] next = counts[chunk];
+                for (int i = chunk * chunkSize, end = Math.min(size, i + chunkSize); i < end; i++) {
+                    int target = next[cellOf(x[i], y[i])]++;
+                    sortedX[target] = x[i];
+                    sortedY[target] = y[i];
+                    sortedType[target] = typeId[i];
+                }
+            });
+            x = sortedX;
+            y = sortedY;
+            typeId = sortedType;
+            cellStart = starts;
+            indexedCount = size;
+        }
+        
+        public int forEachVisible(Viewport viewport, TreeVisitor visitor) {
+            int visited = 0;
+            if (indexedCount > 0) {
+                int first = cellOf(viewport.minX(), viewport.minY());
+                int last = cellOf(viewport.maxX(), viewport.maxY());
+                for (int row = first / columns; row <= last / columns; row++) {
+                    for (int column = first % columns; column <= last % columns; column++) {
+                        int cell = row * columns + column;
+                        visited += visitRange(viewport, visitor, cellStart[cell], cellStart[cell + 1]);
+                    }
+                }
+            }
+            return visited + visitRange(viewport, visitor, indexedCount, size);
+        }
+        
+        private int visitRange(Viewport viewport, TreeVisitor visitor, int from, int to) {
+            int visited = 0;
+            for (int i = from; i < to; i++) {
+                if (viewport.contains(x[i], y[i])) {
+                    visitor.visit(x[i], y[i], types.get(typeId[i]));
+                    visited++;
+                }
+            }
+            return visited;
+        }
+        
+        public void render(Viewport viewport) {
+            forEachVisible(viewport, (treeX, treeY, type) -> type.render(treeX, treeY));
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        public double bytesPerTree() {
+            long bytes = (long) x.length * Integer.BYTES + (long) y.length * Integer.BYTES 
+                    + (long) typeId.length * Short.BYTES + (long) cellStart.length * Integer.BYTES;
+            return size == 0 ? 0 : (double) bytes / size;
+        }
+    }
+    
+    private record FlyweightStats(int live, long requests, long shared, long evicted, long bytesSaved) {}
+    
+    // Weak handle to a flyweight plus its usage counters; enqueued once the flyweight is collected
+    private static final class TypeEntry extends WeakReference<TreeType> {
+        private final TreeKey key;
+        private final long bytes;
+        private final LongAdder requests = new LongAdder();
+        
+        TypeEntry(TreeKey key, TreeType type, long bytes, ReferenceQueue<TreeType> queue) {
+            super(type, queue);
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+    
+    /*
+     * Flyweight cache that lets unused types go. Entries hold flyweights only
+     * weakly, and a ReferenceQueue drains the entries of collected types on
+     * every miss and stats call. An optional size cap evicts the least
+     * requested entry. Bytes saved counts the estimated size of every object
+     * that sharing avoided creating: one per request served by an existing
+     * flyweight.
+     */
+    private static final class EvictingTreeFactory {
+        private static final int UNBOUNDED = Integer.MAX_VALUE;
+        
+        private final Map<TreeKey, TypeEntry> entries = new ConcurrentHashMap<>();
+        private final ReferenceQueue<TreeType> collected = new ReferenceQueue<>();
+        private final ThreadLocal<TreeKey> probe = ThreadLocal.withInitial(TreeKey::new);
+        private final int maxEntries;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder shared = new LongAdder();
+        private final LongAdder evicted = new LongAdder();
+        private final LongAdder bytesSaved = new LongAdder();
+        
+        public EvictingTreeFactory() {
+            this(UNBOUNDED);
+        }
+        
+        public EvictingTreeFactory(int maxEntries) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("Cache must hold at least one entry");
+            }
+            this.maxEntries = maxEntries;
+        }
+        
+        public TreeType getTreeType(String name, String color, String texture) {
+            requests.increment();
+            TreeKey key = probe.get().set(name, color, texture);
+            TypeEntry entry = entries.get(key);
+            TreeType type = entry == null ? null : entry.get();
+            if (type != null) {
+                recordShared(entry);
+                return type;
+            }
+            
+            expungeCollected();
+            TreeType[] result = new TreeType[1];
+            TypeEntry inserted = entries.compute(key.copy(), (k, existing) -> {
+                TreeType current = existing == null ? null : existing.get();
+                if (current != null) {
+                    recordShared(existing);
+                    result[0] = current;
+                    return existing;
+                }
+                result[0] = new ConcreteTreeType(name, color, texture);
+                TypeEntry fresh = new TypeEntry(k, result[0], estimateBytes(name, color, texture), collected);
+                fresh.requests.increment();
+                return fresh;
+            });
+            enforceCap(inserted);
+            return result[0];
+        }
+        
+        private void recordShared(TypeEntry entry) {
+            entry.requests.increment();
+            shared.increment();
+            bytesSaved.add(entry.bytes);
+        }
+        
+        private void expungeCollected() {
+            for (Reference<? extends TreeType> ref; (ref = collected.poll()) != null; ) {
+                TypeEntry entry = (TypeEntry) ref;
+                if (entries.remove(entry.key, entry)) {
+                    evicted.increment();
+                }
+            }
+        }
+        
+        // The entry just inserted is exempt, otherwise a newcomer would always be the coldest
+        private void enforceCap(TypeEntry newest) {
+            while (entries.size() > maxEntries) {
+                TypeEntry coldest = null;
+                for (TypeEntry entry : entries.values()) {
+                    if (entry == newest) {
+                        continue;
+                    }
+                    if (coldest == null || entry.requests.sum() < coldest.requests.sum()) {
+                        coldest = entry;
+                    }
+                }
+                if (coldest == null) {
+                    return;
+                }
+                if (entries.remove(coldest.key, coldest)) {
+                    evicted.increment();
+                }
+            }
+        }
+        
+        public Map<String, Long> requestCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            entries.forEach((key, entry) -> 
+                counts.put(key.name + "/" + key.color + "/" + key.texture, entry.requests.sum()));
+            return counts;
+        }
+        
+        // Entries cleared by the GC but not yet enqueued are dropped here as well
+        public FlyweightStats stats() {
+            expungeCollected();
+            int live = 0;
+            for (TypeEntry entry : entries.values()) {
+                if (!entry.refersTo(null)) {
+                    live++;
+                } else if (entries.remove(entry.key, entry)) {
+                    evicted.increment();
+                }
+            }
+            return new FlyweightStats(live, requests.sum(), shared.sum(), evicted.sum(), bytesSaved.sum());
+        }
+        
+        /*
+         * Shallow size of a ConcreteTreeType plus its three Latin-1 strings on a
+         * 64-bit JVM with compressed oops: a 12-byte header per object, 4-byte
+         * references and 8-byte alignment.
+         */
+        private static long estimateBytes(String... fields) {
+            long bytes = align(12 + fields.length * 4);
+            for (String field : fields) {
+                bytes += align(12 + 4 + 4 + 1 + 1) + align(16 + field.length());
+            }
+            return bytes;
+        }
+        
+        private static long align(long bytes) {
+            return (bytes + 7) & ~7L;
+        }
+    }
+    
     @Override
     public void demonstrate() {
         Logger.logPattern("Flyweight Pattern");
@@ -88,5 +520,118 @@ public final class FlyweightPattern implements Demonstrable {
         
         Logger.log("\nTotal trees: " + forest.length);
         Logger.log("Unique tree types (flyweights): " + TreeFactory.getTypeCount());
+        
+        Logger.logSection("Concurrent Factory (racing first lookups)");
+        ConcurrentTreeFactory factory = new ConcurrentTreeFactory();
+        try {
+            measureLookups(factory, 16, 1_000);
+            Logger.log("Types: " + factory.getTypeCount() + ", created: " + factory.getCreatedCount() 
+                    + " (exactly once each)");
+            
+            Logger.logSection("Concurrent Factory Lookup Rate");
+            int totalLookups = 4_000_000;
+            for (int threads = 1; threads <= 64; threads *= 2) {
+                long elapsed = measureLookups(factory, threads, totalLookups / threads);
+                Logger.log(String.format("%2d threads: %,.0f lookups/s", threads, 
+                        totalLookups * 1e9 / elapsed));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Logger.log("Lookup benchmark interrupted");
+        }
+        
+        Logger.logSection("Struct-of-Arrays Forest");
+        Forest small = new Forest(100, 100, 10);
+        short oak = small.addType(TreeFactory.getTreeType("Oak", "Green", "Rough"));
+        short pine = small.addType(TreeFactory.getTreeType("Pine", "Dark Green", "Smooth"));
+        small.plant(5, 5, oak);
+        small.plant(15, 12, pine);
+        small.plant(80, 90, oak);
+        small.buildIndex();
+        small.plant(18, 3, pine);
+        Logger.log("Rendering viewport (0,0)-(20,20):");
+        small.render(new Viewport(0, 0, 20, 20));
+        
+        int worldSize = 100_000;
+        int treeCount = 2_000_000;
+        Forest largeForest = new Forest(worldSize, worldSize, 500);
+        short[] typeIds = new short[BENCHMARK_TYPES.length];
+        for (int t = 0; t < typeIds.length; t++) {
+            String[] type = BENCHMARK_TYPES[t];
+            typeIds[t] = largeForest.addType(factory.getTreeType(type[0], type[1], type[2]));
+        }
+        int[] xs = new int[treeCount];
+        int[] ys = new int[treeCount];
+        short[] types = new short[treeCount];
+        long seed = 42;
+        for (int i = 0; i < treeCount; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            xs[i] = (int) ((seed >>> 33) % worldSize);
+            ys[i] = (int) ((seed >>> 13 & 0xFFFFF) % worldSize);
+            types[i] = typeIds[i % typeIds.length];
+        }
+        largeForest.plantAll(xs, ys, types, 0, treeCount);
+        
+        long start = System.nanoTime();
+        largeForest.buildIndex();
+        long buildMillis = (System.nanoTime() - start) / 1_000_000;
+        
+        Viewport viewport = new Viewport(40_000, 40_000, 41_920, 41_080);
+        int[] sink = new int[1];
+        TreeVisitor counter = (treeX, treeY, type) -> sink[0]++;
+        long indexedNanos = Long.MAX_VALUE;
+        int visible = 0;
+        for (int round = 0; round < 20; round++) {
+            start = System.nanoTime();
+            visible = largeForest.forEachVisible(viewport, counter);
+            indexedNanos = Math.min(indexedNanos, System.nanoTime() - start);
+        }
+        long scanNanos = Long.MAX_VALUE;
+        int scanned = 0;
+        for (int round = 0; round < 5; round++) {
+            start = System.nanoTime();
+            scanned = 0;
+            for (int i = 0; i < treeCount; i++) {
+                if (viewport.contains(xs[i], ys[i])) {
+                    scanned++;
+                }
+            }
+            scanNanos = Math.min(scanNanos, System.nanoTime() - start);
+        }
+        
+        Logger.log(String.format("%,d trees, %.1f bytes per tree, index built in %dms", 
+                largeForest.size(), largeForest.bytesPerTree(), buildMillis));
+        Logger.log(String.format("Viewport query: %d visible trees in %dus (full scan: %d trees in %dus)", 
+                visible, indexedNanos / 1_000, scanned, scanNanos / 1_000));
+        
+        Logger.logSection("Evicting Flyweight Cache");
+        EvictingTreeFactory evicting = new EvictingTreeFactory();
+        List<TreeType> inUse = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            String[] type = BENCHMARK_TYPES[i % 4];
+            TreeType flyweight = evicting.getTreeType(type[0], type[1], type[2]);
+            if (i < 2) {
+                inUse.add(flyweight);
+            }
+        }
+        Logger.log("Requests per type: " + evicting.requestCounts());
+        logStats("Before GC", evicting.stats());
+        System.gc();
+        logStats("After GC (2 types still referenced)", evicting.stats());
+        Logger.log("Still in use: " + inUse.size() + " flyweights");
+        
+        Logger.logSection("Size-Capped Flyweight Cache (2 entries)");
+        EvictingTreeFactory capped = new EvictingTreeFactory(2);
+        for (int i = 0; i < 30; i++) {
+            String[] type = BENCHMARK_TYPES[i < 20 ? i % 2 : 2];
+            inUse.add(capped.getTreeType(type[0], type[1], type[2]));
+        }
+        Logger.log("Requests per type: " + capped.requestCounts());
+        logStats("Capped", capped.stats());
+    }
+    
+    private static void logStats(String label, FlyweightStats stats) {
+        Logger.log(String.format("%s: %d live, %d requests, %d shared, %d evicted, ~%,d bytes saved", 
+                label, stats.live(), stats.requests(), stats.shared(), stats.evicted(), stats.bytesSaved()));
     }
 }
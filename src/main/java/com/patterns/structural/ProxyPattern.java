@@ -2,6 +2,32 @@ package com.patterns.structural;
 
 import com.patterns.common.Demonstrable;
 import com.patterns.common.Logger;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Proxy Pattern - Provides a surrogate or placeholder for another object
@@ -17,14 +43,37 @@ public final class ProxyPattern implements Demonstrable {
     // Real Subject
     private static final class RealImage implements Image {
         private final String fileName;
+        private final Path path;
+        private ByteBuffer pixels;
         
         public RealImage(String fileName) {
+            this(fileName, null);
+        }
+        
+        public RealImage(Path path) {
+            this(path.getFileName().toString(), path);
+        }
+        
+        private RealImage(String fileName, Path path) {
             this.fileName = fileName;
+            this.path = path;
             loadFromDisk();
         }
         
+        // Maps the file read-only; the pages are faulted in lazily by the OS
         private void loadFromDisk() {
             Logger.log("Loading image from disk: " + fileName);
+            if (path != null) {
+                try (FileChannel channel = FileChannel.open(path)) {
+                    pixels = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        
+        public long sizeInBytes() {
+            return pixels == null ? 0 : pixels.capacity();
         }
         
         @Override
@@ -54,6 +103,522 @@ public final class ProxyPattern implements Demonstrable {
         }
     }
     
+    /*
+     * Thread-safe virtual proxy. The first caller to win the CAS on the future
+     * runs the load. Every other caller waits on that future or receives it.
+     * After loading, display() reads one volatile field and takes no lock.
+     */
+    private static final class ConcurrentProxyImage implements Image {
+        private final String fileName;
+        private final AtomicInteger loads = new AtomicInteger();
+        private final AtomicReference<CompletableFuture<RealImage>> loading = new AtomicReference<>();
+        private volatile RealImage realImage;
+        
+        public ConcurrentProxyImage(String fileName) {
+            this.fileName = fileName;
+        }
+        
+        @Override
+        public void display() {
+            RealImage image = realImage;
+            if (image == null) {
+                image = load(Runnable::run).join();
+            }
+            image.display();
+        }
+        
+        // Starts loading in the background; the first display() then only waits for the rest
+        public CompletableFuture<RealImage> prefetch(Executor executor) {
+            return load(executor);
+        }
+        
+        // A failed load clears the slot, so losing the CAS can still leave it empty;
+        // in that case the caller loops and competes to start the retry itself
+        private CompletableFuture<RealImage> load(Executor executor) {
+            CompletableFuture<RealImage> future = null;
+            while (true) {
+                RealImage image = realImage;
+                if (image != null) {
+                    return CompletableFuture.completedFuture(image);
+                }
+                CompletableFuture<RealImage> existing = loading.get();
+                if (existing != null) {
+                    return existing;
+                }
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                }
+                if (loading.compareAndSet(null, future)) {
+                    return start(future, executor);
+                }
+            }
+        }
+        
+        private CompletableFuture<RealImage> start(CompletableFuture<RealImage> future, Executor executor) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        loads.incrementAndGet();
+                        RealImage loaded = new RealImage(fileName);
+                        realImage = loaded;
+                        future.complete(loaded);
+                    } catch (Throwable e) {
+                        fail(future, e);
+                        if (e instanceof Error error) {
+                            throw error;
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                fail(future, e);
+            }
+            return future;
+        }
+        
+        // Allows a later caller to retry instead of caching the failure; waiters see it first
+        private void fail(CompletableFuture<RealImage> future, Throwable cause) {
+            loading.compareAndSet(future, null);
+            future.completeExceptionally(cause);
+        }
+        
+        public int loadCount() {
+            return loads.get();
+        }
+    }
+    
+    // Count-min sketch of 4-bit saturating counters, halved periodically so old popularity fades
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+        private static final int MAX_COUNT = 15;
+        
+        private final byte[][] rows = new byte[SEEDS.length][];
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+        
+        public FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(16, expectedEntries * 4 - 1) << 1);
+            for (int r = 0; r < rows.length; r++) {
+                rows[r] = new byte[width];
+            }
+            this.mask = width - 1;
+            this.sampleSize = width * 10;
+        }
+        
+        public void increment(Object key) {
+            int hash = key.hashCode();
+            for (int r = 0; r < rows.length; r++) {
+                int index = indexOf(hash, r);
+                if (rows[r][index] < MAX_COUNT) {
+                    rows[r][index]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                age();
+            }
+        }
+        
+        public int frequency(Object key) {
+            int hash = key.hashCode();
+            int min = MAX_COUNT;
+            for (int r = 0; r < rows.length; r++) {
+                min = Math.min(min, rows[r][indexOf(hash, r)]);
+            }
+            return min;
+        }
+        
+        private int indexOf(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+        
+        private void age() {
+            for (byte[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+    
+    private record ImageCacheStats(long hits, long misses, long evictions, long loads, 
+                                   long averageLoadMicros, long weightedBytes) {
+        double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+    
+    /*
+     * Shared image cache bounded by decoded bytes, using a W-TinyLFU-style
+     * policy. New images enter a small LRU window. An image pushed out of the
+     * window only displaces the main region's LRU victims if the frequency
+     * sketch rates it more popular than each of them. Loads happen outside the
+     * cache lock, and concurrent loads of the same file are coalesced.
+     */
+    private static final class ImageCache {
+        private final long windowBytes;
+        private final long mainBytes;
+        private final LinkedHashMap<Path, RealImage> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Path, RealImage> main = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<Path, CompletableFuture<RealImage>> loading = new ConcurrentHashMap<>();
+        private final FrequencySketch sketch;
+        private long windowWeight;
+        private long mainWeight;
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long loads;
+        private long loadNanos;
+        
+        public ImageCache(long capacityBytes, double windowFraction, int expectedEntries) {
+            this.windowBytes = (long) (capacityBytes * windowFraction);
+            this.mainBytes = capacityBytes - windowBytes;
+            this.sketch = new FrequencySketch(expectedEntries);
+        }
+        
+        public RealImage get(Path path) {
+            synchronized (this) {
+                sketch.increment(path);
+                RealImage image = lookup(path);
+                if (image != null) {
+                    hits++;
+                    return image;
+                }
+                misses++;
+            }
+            
+            CompletableFuture<RealImage> mine = new CompletableFuture<>();
+            CompletableFuture<RealImage> inFlight = loading.putIfAbsent(path, mine);
+            if (inFlight != null) {
+                return inFlight.join();
+            }
+            try {
+                RealImage image;
+                synchronized (this) {
+                    image = lookup(path);
+                }
+                if (image == null) {
+                    long start = System.nanoTime();
+                    image = new RealImage(path);
+                    long elapsed = System.nanoTime() - start;
+                    synchronized (this) {
+                        loads++;
+                        loadNanos += elapsed;
+                        admit(path, image);
+                    }
+                }
+                mine.complete(image);
+                return image;
+            } catch (RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                loading.remove(path, mine);
+            }
+        }
+        
+        private RealImage lookup(Path path) {
+            RealImage image = window.get(path);
+            return image != null ? image : main.get(path);
+        }
+        
+        private void admit(Path path, RealImage image) {
+            window.put(path, image);
+            windowWeight += image.sizeInBytes();
+            Iterator<Map.Entry<Path, RealImage>> eldest = window.entrySet().iterator();
+            while (windowWeight > windowBytes && eldest.hasNext()) {
+                Map.Entry<Path, RealImage> candidate = eldest.next();
+                eldest.remove();
+                windowWeight -= candidate.getValue().sizeInBytes();
+                offerToMain(candidate.getKey(), candidate.getValue());
+            }
+        }
+        
+        // The candidate must out-rank every victim it would displace, or it is dropped
+        private void offerToMain(Path candidate, RealImage image) {
+            long weight = image.sizeInBytes();
+            if (weight > mainBytes) {
+                evictions++;
+                return;
+            }
+            int candidateFrequency = sketch.frequency(candidate);
+            List<Map.Entry<Path, RealImage>> victims = new ArrayList<>();
+            long freed = 0;
+            for (Map.Entry<Path, RealImage> entry : main.entrySet()) {
+                if (mainWeight - freed + weight <= mainBytes) {
+                    break;
+                }
+                if (candidateFrequency <= sketch.frequency(entry.getKey())) {
+                    evictions++;
+                    return;
+                }
+                victims.add(entry);
+                freed += entry.getValue().sizeInBytes();
+            }
+            for (Map.Entry<Path, RealImage> victim : victims) {
+                main.remove(victim.getKey());
+                evictions++;
+            }
+            mainWeight -= freed;
+            main.put(candidate, image);
+            mainWeight += weight;
+        }
+        
+        public synchronized ImageCacheStats stats() {
+            return new ImageCacheStats(hits, misses, evictions, loads, 
+                    loads == 0 ? 0 : loadNanos / loads / 1_000, windowWeight + mainWeight);
+        }
+    }
+    
+    // Proxy that holds no image itself; evicted images are reloaded through the shared cache
+    private static final class CachedProxyImage implements Image {
+        private final Path path;
+        private final ImageCache cache;
+        
+        public CachedProxyImage(Path path, ImageCache cache) {
+            this.path = path;
+            this.cache = cache;
+        }
+        
+        @Override
+        public void display() {
+            cache.get(path).display();
+        }
+    }
+    
+    private static List<Path> createImages(Path directory, int count) throws IOException {
+        List<Path> images = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] pixels = new byte[(64 + 16 * i) * 1024];
+            images.add(Files.write(directory.resolve("image" + i + ".raw"), pixels));
+        }
+        return images;
+    }
+    
+    private static void deleteAll(Path directory, List<Path> files) {
+        try {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            Logger.log("Could not delete image files: " + e.getMessage());
+        }
+    }
+    
+    // Remote image service; one call is one network round trip, whatever the batch size
+    private interface ImageService {
+        Map<String, String> render(List<String> fileNames);
+    }
+    
+    /*
+     * In-process stand-in for the remote service. Each call sleeps for one
+     * simulated round-trip time while holding one of a few connection permits,
+     * so the cost of a call is per round trip, as it would be over a real
+     * connection pool.
+     */
+    private static final class LocalImageService implements ImageService {
+        private final long roundTripMicros;
+        private final Semaphore connections;
+        private final AtomicInteger roundTrips = new AtomicInteger();
+        
+        public LocalImageService(long roundTripMicros, int connections) {
+            this.roundTripMicros = roundTripMicros;
+            this.connections = new Semaphore(connections);
+        }
+        
+        @Override
+        public Map<String, String> render(List<String> fileNames) {
+            connections.acquireUninterruptibly();
+            try {
+                roundTrips.incrementAndGet();
+                TimeUnit.MICROSECONDS.sleep(roundTripMicros);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Remote call interrupted", e);
+            } finally {
+                connections.release();
+            }
+            Map<String, String> rendered = new HashMap<>();
+            for (String fileName : fileNames) {
+                rendered.put(fileName, "rendered " + fileName);
+            }
+            return rendered;
+        }
+        
+        public int roundTrips() {
+            return roundTrips.get();
+        }
+    }
+    
+    private interface ImageClient {
+        CompletableFuture<String> render(String fileName);
+    }
+    
+    // Baseline: every request is its own round trip
+    private static final class DirectImageClient implements ImageClient {
+        private final ImageService service;
+        private final Executor executor;
+        
+        public DirectImageClient(ImageService service, Executor executor) {
+            this.service = service;
+            this.executor = executor;
+        }
+        
+        @Override
+        public CompletableFuture<String> render(String fileName) {
+            return CompletableFuture.supplyAsync(() -> service.render(List.of(fileName)).get(fileName), executor);
+        }
+    }
+    
+    /*
+     * Coalescing, micro-batching client. Concurrent requests for the same file
+     * share one in-flight future. Requests for different files are gathered
+     * into one batch, which is sent as a single call once it reaches maxBatch
+     * files or when the time window that opened with its first request closes,
+     * whichever comes first. Batches already open when the client closes still
+     * go out; requests the client can no longer schedule or send fail at once.
+     */
+    private static final class BatchingImageClient implements ImageClient, AutoCloseable {
+        private final ImageService service;
+        private final int maxBatch;
+        private final long windowMicros;
+        private final Executor executor;
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+        private List<String> pending = new ArrayList<>();
+        private volatile boolean closed;
+        
+        public BatchingImageClient(ImageService service, int maxBatch, long windowMicros, Executor executor) {
+            this.service = service;
+            this.maxBatch = maxBatch;
+            this.windowMicros = windowMicros;
+            this.executor = executor;
+        }
+        
+        @Override
+        public CompletableFuture<String> render(String fileName) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Image client is closed"));
+            }
+            CompletableFuture<String> future = new CompletableFuture<>();
+            CompletableFuture<String> existing = inFlight.putIfAbsent(fileName, future);
+            if (existing != null) {
+                return existing;
+            }
+            List<String> full = null;
+            RejectedExecutionException rejected = null;
+            synchronized (this) {
+                pending.add(fileName);
+                if (pending.size() >= maxBatch) {
+                    full = takePending();
+                } else if (pending.size() == 1) {
+                    List<String> batch = pending;
+                    try {
+                        timer.schedule(() -> flush(batch), windowMicros, TimeUnit.MICROSECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // Closed concurrently: no window will ever flush this batch
+                        full = takePending();
+                        rejected = e;
+                    }
+                }
+            }
+            if (rejected != null) {
+                fail(full, rejected);
+            } else if (full != null) {
+                send(full);
+            }
+            return future;
+        }
+        
+        // Window expiry only flushes the batch it was scheduled for, if that batch is still open
+        private void flush(List<String> batch) {
+            List<String> ready;
+            synchronized (this) {
+                if (pending != batch) {
+                    return;
+                }
+                ready = takePending();
+            }
+            send(ready);
+        }
+        
+        private List<String> takePending() {
+            List<String> batch = pending;
+            pending = new ArrayList<>();
+            return batch;
+        }
+        
+        private void send(List<String> batch) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        Map<String, String> rendered = service.render(batch);
+                        for (String fileName : batch) {
+                            inFlight.remove(fileName).complete(rendered.get(fileName));
+                        }
+                    } catch (RuntimeException e) {
+                        fail(batch, e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                fail(batch, e);
+            }
+        }
+        
+        // Removes the batch from inFlight first, so a later request for the same file starts afresh
+        private void fail(List<String> batch, Throwable cause) {
+            for (String fileName : batch) {
+                inFlight.remove(fileName).completeExceptionally(cause);
+            }
+        }
+        
+        @Override
+        public void close() {
+            closed = true;
+            timer.shutdown();
+        }
+    }
+    
+    // Remote proxy: looks like a local Image, but rendering happens in the image service
+    private static final class RemoteProxyImage implements Image {
+        private final String fileName;
+        private final ImageClient client;
+        
+        public RemoteProxyImage(String fileName, ImageClient client) {
+            this.fileName = fileName;
+            this.client = client;
+        }
+        
+        @Override
+        public void display() {
+            Logger.log("Remote proxy: " + client.render(fileName).join());
+        }
+    }
+    
+    // Fires all requests at once from virtual threads; returns each request's latency in microseconds
+    private static long[] measureLatencies(ImageClient client, List<String> requests) {
+        long[] latencies = new long[requests.size()];
+        try (ExecutorService requesters = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < requests.size(); i++) {
+                int request = i;
+                requesters.execute(() -> {
+                    long start = System.nanoTime();
+                    client.render(requests.get(request)).join();
+                    latencies[request] = (System.nanoTime() - start) / 1_000;
+                });
+            }
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+    
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+    
     @Override
     public void demonstrate() {
         Logger.logPattern("Proxy Pattern");
@@ -69,5 +634,89 @@ public final class ProxyPattern implements Demonstrable {
         
         Logger.logSection("First access to image2");
         image2.display();
+        
+        Logger.logSection("Concurrent first access (single-flight)");
+        ConcurrentProxyImage shared = new ConcurrentProxyImage("panorama.jpg");
+        int viewers = 4;
+        CountDownLatch gate = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < viewers; i++) {
+                executor.execute(() -> {
+                    try {
+                        gate.await();
+                        shared.display();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            gate.countDown();
+        }
+        
+        Logger.logSection("Prefetch before first display");
+        ConcurrentProxyImage warmed = new ConcurrentProxyImage("thumbnail.jpg");
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            warmed.prefetch(executor).join();
+        }
+        warmed.display();
+        Logger.log("Disk loads for " + (viewers + 1) + " displays of 2 images: " 
+                + (shared.loadCount() + warmed.loadCount()));
+        
+        Logger.logSection("Shared Byte-Bounded Cache (512KB, memory-mapped images)");
+        Path directory = null;
+        List<Path> files = List.of();
+        try {
+            directory = Files.createTempDirectory("proxy-images");
+            files = createImages(directory, 8);
+            ImageCache cache = new ImageCache(512 * 1024, 0.2, files.size());
+            List<Image> proxies = new ArrayList<>();
+            for (Path file : files) {
+                proxies.add(new CachedProxyImage(file, cache));
+            }
+            
+            // Skewed workload: low-numbered images are requested far more often
+            Random random = new Random(7);
+            for (int i = 0; i < 60; i++) {
+                int index = Math.min(random.nextInt(files.size()), random.nextInt(files.size()));
+                cache.get(files.get(index));
+            }
+            
+            Logger.log("Displaying the least popular image through its proxy:");
+            proxies.get(files.size() - 1).display();
+            
+            ImageCacheStats stats = cache.stats();
+            Logger.log(String.format("Hit rate %.2f (%d hits, %d misses), %d evictions, %d loads, " 
+                    + "avg load %dus, %,d bytes cached", stats.hitRate(), stats.hits(), stats.misses(), 
+                    stats.evictions(), stats.loads(), stats.averageLoadMicros(), stats.weightedBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (directory != null) {
+                deleteAll(directory, files);
+            }
+        }
+        
+        Logger.logSection("Remote Proxy (coalescing, micro-batching)");
+        List<String> requests = new ArrayList<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 1_000; i++) {
+            requests.add("remote" + random.nextInt(200) + ".jpg");
+        }
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            LocalImageService directService = new LocalImageService(1_000, 4);
+            long[] direct = measureLatencies(new DirectImageClient(directService, callers), requests);
+            
+            LocalImageService batchedService = new LocalImageService(1_000, 4);
+            try (BatchingImageClient batching = new BatchingImageClient(batchedService, 64, 500, callers)) {
+                new RemoteProxyImage("remote1.jpg", batching).display();
+                int warmupTrips = batchedService.roundTrips();
+                long[] batched = measureLatencies(batching, requests);
+                
+                Logger.log(String.format("One call per request: %d round trips, p50 %dus, p99 %dus", 
+                        directService.roundTrips(), percentile(direct, 0.50), percentile(direct, 0.99)));
+                Logger.log(String.format("Coalesced + batched:  %d round trips, p50 %dus, p99 %dus", 
+                        batchedService.roundTrips() - warmupTrips, percentile(batched, 0.50), percentile(batched, 0.99)));
+            }
+        }
     }
 }